@@ -2,16 +2,26 @@ package edu.illinois.cs.cs124.ay2022.mp.activities;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.Window;
 import android.widget.ImageView;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.SearchView;
 import edu.illinois.cs.cs124.ay2022.mp.R;
 import edu.illinois.cs.cs124.ay2022.mp.application.FavoritePlacesApplication;
+import edu.illinois.cs.cs124.ay2022.mp.models.NarrowingSearch;
 import edu.illinois.cs.cs124.ay2022.mp.models.Place;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceIndex;
 import edu.illinois.cs.cs124.ay2022.mp.models.ResultMightThrow;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import org.osmdroid.api.IMapController;
 import org.osmdroid.events.MapEventsReceiver;
@@ -48,6 +58,83 @@ public final class MainActivity extends AppCompatActivity
   // List of all places retrieved from the server, initially set to an empty list to avoid nulls
   private List<Place> allPlaces = new ArrayList<>();
 
+  // Search index over allPlaces, rebuilt whenever we receive a new list of places
+  private PlaceIndex placeIndex = new PlaceIndex(allPlaces);
+
+  // Prefix search over placeIndex that narrows its previous results as the user types
+  private NarrowingSearch narrowingSearch = new NarrowingSearch(placeIndex);
+
+  // Most places to show for a ranked search
+  private static final int MAX_RANKED_RESULTS = 100;
+
+  // Shortest search that we will look for misspellings of
+  private static final int MIN_TYPO_LENGTH = 4;
+
+  // How long to wait after the search text changes before searching, in milliseconds
+  private static final long SEARCH_DELAY = 100;
+
+  // Time available to draw each frame at 60 frames per second, in nanoseconds
+  private static final long FRAME_BUDGET = 16_000_000L;
+
+  // Frames measured after showing search results, which covers the layout and drawing they cause
+  private static final int FRAMES_PER_UPDATE = 10;
+
+  private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+  // Searches run here, one at a time, rather than on the UI thread
+  private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+
+  // Used to delay searches and to return their results to the UI thread
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  // Incremented for every change to the search text, so older searches know they were replaced
+  private final AtomicLong searchGeneration = new AtomicLong();
+
+  // Search waiting for typing to pause, and search running on the search thread
+  private Runnable pendingSearch = null;
+  private Future<?> runningSearch = null;
+
+  /*
+   * Frames still to be measured since search results were last shown, how many frames were
+   * measured, how many took longer than FRAME_BUDGET, and the longest.
+   * Only used on the UI thread.
+   */
+  private int framesToMeasure = 0;
+  private long frameCount = 0;
+  private long slowFrameCount = 0;
+  private long maxFrameTime = 0;
+
+  /*
+   * Receives the time taken by every frame drawn by this activity's window, from handling input
+   * through drawing to handing the frame to the display.
+   * Frames are only recorded for a short time after search results are shown, so the counts
+   * describe how smoothly results are applied rather than every frame the map draws.
+   */
+  private final Window.OnFrameMetricsAvailableListener frameListener =
+      (window, frameMetrics, dropCount) -> {
+        if (framesToMeasure == 0) {
+          return;
+        }
+        framesToMeasure--;
+        long duration = frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION);
+        frameCount++;
+        maxFrameTime = Math.max(maxFrameTime, duration);
+        if (duration > FRAME_BUDGET) {
+          slowFrameCount++;
+          Log.w(
+              TAG,
+              "Frame after showing search results took "
+                  + duration / NANOS_PER_MILLI
+                  + " ms, "
+                  + slowFrameCount
+                  + " of "
+                  + frameCount
+                  + " frames over budget, longest "
+                  + maxFrameTime / NANOS_PER_MILLI
+                  + " ms");
+        }
+      };
+
   // ID of the currently open place, used to keep the same popup open when the list of places is
   // updated
   // null indicates no currently open popup
@@ -108,6 +195,9 @@ public final class MainActivity extends AppCompatActivity
     mapController.setZoom(MAP_DEFAULT_ZOOM);
     mapController.setCenter(new GeoPoint(40.10986682167534, -88.22831928981661));
     imageView = findViewById(R.id.imageView);
+
+    // Measure frames for as long as the activity exists, since the window goes away along with it
+    getWindow().addOnFrameMetricsAvailableListener(frameListener, mainHandler);
   }
 
   /*
@@ -140,6 +230,10 @@ public final class MainActivity extends AppCompatActivity
     try {
       // Save the list of all available places
       allPlaces = result.getResult();
+      placeIndex = new PlaceIndex(allPlaces);
+      narrowingSearch = new NarrowingSearch(placeIndex);
+      // Results from searching the previous list should no longer be shown
+      searchGeneration.incrementAndGet();
       // Update the UI to show all available places
       updateShownPlaces(allPlaces);
     } catch (Exception e) {
@@ -228,17 +322,103 @@ public final class MainActivity extends AppCompatActivity
     mapView.invalidate();
   }
 
+  /*
+   * Called on the UI thread for every change to the search text.
+   *
+   * Searching and then drawing markers for the results can take longer than a frame for large
+   * lists, and the UI would freeze while it happens.
+   * So we wait for typing to pause before searching, and then search on a background thread.
+   * Each change replaces any search that has not finished yet, and only the results of the latest
+   * search are shown.
+   */
   @Override
   public boolean onQueryTextChange(final String text) {
     Log.d(TAG, "onQueryTextChange " + text);
-    if (Place.search(allPlaces, text).size() == 0) {
-      updateShownPlaces(allPlaces);
-    } else {
-      updateShownPlaces(Place.search(allPlaces, text));
+    long generation = searchGeneration.incrementAndGet();
+    if (pendingSearch != null) {
+      mainHandler.removeCallbacks(pendingSearch);
     }
+    if (runningSearch != null) {
+      runningSearch.cancel(false);
+    }
+
+    // Capture the current index so that a new list of places can't change it during the search
+    PlaceIndex index = placeIndex;
+    NarrowingSearch narrowing = narrowingSearch;
+    pendingSearch =
+        () ->
+            runningSearch =
+                searchExecutor.submit(
+                    () -> {
+                      List<Place> results = findPlaces(text, index, narrowing, generation);
+                      if (results == null) {
+                        return;
+                      }
+                      mainHandler.post(
+                          () -> {
+                            if (generation == searchGeneration.get()) {
+                              showSearchResults(results);
+                            }
+                          });
+                    });
+    mainHandler.postDelayed(pendingSearch, SEARCH_DELAY);
     return true;
   }
 
+  /*
+   * Find the places to show for the search text, usually on the search thread.
+   * Tries progressively looser searches until one finds something, and shows every place if none
+   * do.
+   * Returns null if a newer search replaces this one before it finishes.
+   */
+  private List<Place> findPlaces(
+      final String text,
+      final PlaceIndex index,
+      final NarrowingSearch narrowing,
+      final long generation) {
+    List<Place> results = index.search(text);
+    // Searches with several words, or that only match names, are ranked by how well they match
+    if (results.size() == 0 && generation == searchGeneration.get()) {
+      results = index.searchRanked(text, MAX_RANKED_RESULTS);
+    }
+    // While a word is only partly typed it won't match exactly, so show places with words that
+    // begin with it instead
+    if (results.size() == 0 && generation == searchGeneration.get()) {
+      results = narrowing.searchPrefix(text);
+    }
+    // Then allow for a typo, but only in longer words, since most short words are one edit apart
+    if (results.size() == 0
+        && text.trim().length() >= MIN_TYPO_LENGTH
+        && generation == searchGeneration.get()) {
+      results = index.searchFuzzy(text, 1);
+    }
+    if (generation != searchGeneration.get()) {
+      return null;
+    }
+    if (results.size() == 0) {
+      return index.getPlaces();
+    }
+    return results;
+  }
+
+  /*
+   * Show search results on the map, on the UI thread.
+   * Replacing the markers and then drawing them has to fit within a frame to keep the UI smooth, so
+   * we measure the frames that follow and log any that don't.
+   */
+  private void showSearchResults(final List<Place> results) {
+    updateShownPlaces(results);
+    framesToMeasure = FRAMES_PER_UPDATE;
+  }
+
+  // Stop searching once the activity is gone
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    mainHandler.removeCallbacksAndMessages(null);
+    searchExecutor.shutdownNow();
+  }
+
   @Override
   public boolean onQueryTextSubmit(final String text) {
     return false;
@@ -4,6 +4,7 @@ import android.app.Application;
 import android.os.Build;
 import edu.illinois.cs.cs124.ay2022.mp.network.Client;
 import edu.illinois.cs.cs124.ay2022.mp.network.Server;
+import java.io.File;
 
 /*
  * One instance of the Application class is created when the app is launched and persists
@@ -23,6 +24,9 @@ public final class FavoritePlacesApplication extends Application {
 
   public static final String SERVER_URL = "http://localhost:" + DEFAULT_SERVER_PORT + "/";
 
+  // Directory in the app's private storage used by the server to save posted places
+  public static final String PLACE_DATA_DIRECTORY = "places";
+
   // Put your ID (from ID.txt) here
   public static final String CLIENT_ID = "ec863316-72ff-43e8-bea1-a01605270025";
 
@@ -40,10 +44,12 @@ public final class FavoritePlacesApplication extends Application {
 
     // We start the API server differently depending on whether we are in a testing environment or
     // not
+    // Outside of testing, places posted to the server are saved so that they survive restarts
     if (Build.FINGERPRINT.equals("robolectric")) {
       Server.start();
     } else {
-      new Thread(Server::start).start();
+      File dataDirectory = new File(getFilesDir(), PLACE_DATA_DIRECTORY);
+      new Thread(() -> Server.start(dataDirectory)).start();
     }
 
     // Start the API client
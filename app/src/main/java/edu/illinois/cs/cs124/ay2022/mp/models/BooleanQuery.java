@@ -0,0 +1,287 @@
+package edu.illinois.cs.cs124.ay2022.mp.models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/*
+ * Parses and evaluates boolean searches like "coffee AND NOT starbucks".
+ *
+ * Searches combine words using AND, OR, and NOT, which must be written in capitals, and parentheses
+ * for grouping.
+ * Words next to each other without an operator must all match, so "quiet study" is the same as
+ * "quiet AND study".
+ * NOT applies to the word or group that follows it, AND is applied before OR, and otherwise
+ * operators are applied left to right.
+ *
+ * The search is turned into a tree of PostingsCursors, with a cursor over the positions of the
+ * places containing each word at the leaves.
+ * Advancing the cursor at the root pulls matching positions through the tree one at a time.
+ * An AND skips each of its parts ahead to the largest position any of them is at, so it only reads
+ * as much of a long list as it needs to compare against the shortest one.
+ */
+final class BooleanQuery {
+  private final List<String> tokens;
+  private final Function<String, PostingsCursor> lookup;
+  private final int placeCount;
+
+  // Index of the next token to parse
+  private int next = 0;
+
+  private BooleanQuery(
+      final List<String> setTokens,
+      final Function<String, PostingsCursor> setLookup,
+      final int setPlaceCount) {
+    tokens = setTokens;
+    lookup = setLookup;
+    placeCount = setPlaceCount;
+  }
+
+  /*
+   * Parse a search into a cursor over the positions of the places that match it.
+   * The lookup returns a cursor over the places containing a lowercase word, or null if none do.
+   * Throws IllegalArgumentException if the search is not valid, for example if it has unbalanced
+   * parentheses or an operator missing a word.
+   */
+  static PostingsCursor parse(
+      final String search, final Function<String, PostingsCursor> lookup, final int placeCount) {
+    BooleanQuery query = new BooleanQuery(split(search), lookup, placeCount);
+    if (query.tokens.size() == 0) {
+      throw new IllegalArgumentException("empty search");
+    }
+    PostingsCursor root = query.parseOr();
+    if (query.next != query.tokens.size()) {
+      throw new IllegalArgumentException("unexpected " + query.tokens.get(query.next));
+    }
+    return root;
+  }
+
+  /*
+   * Split a search into operators, parentheses, and words.
+   * Terms are separated by parentheses and by any whitespace, not only spaces.
+   * Words are split and lowercased the same way as place descriptions, and a search term that
+   * splits into several words, like "24/7", matches places containing all of them.
+   */
+  private static List<String> split(final String search) {
+    List<String> toReturn = new ArrayList<>();
+    PlaceTokenizer tokenizer = new PlaceTokenizer();
+    int start = 0;
+    for (int i = 0; i <= search.length(); i++) {
+      char c = ' ';
+      if (i < search.length()) {
+        c = search.charAt(i);
+      }
+      if (!Character.isWhitespace(c) && c != '(' && c != ')') {
+        continue;
+      }
+      String term = search.substring(start, i);
+      start = i + 1;
+      if (term.equals("AND") || term.equals("OR") || term.equals("NOT")) {
+        toReturn.add(term);
+      } else if (term.length() > 0) {
+        List<String> words = new ArrayList<>();
+        tokenizer.tokenize(
+            term,
+            (token, length) -> {
+              if (length > 0) {
+                words.add(new String(token, 0, length));
+              }
+              return true;
+            });
+        // Parenthesize words from the same term so that NOT applies to all of them
+        if (words.size() > 1) {
+          toReturn.add("(");
+        }
+        for (String word : words) {
+          // Prefix words so they can't be confused with operators or parentheses
+          toReturn.add(":" + word);
+        }
+        if (words.size() > 1) {
+          toReturn.add(")");
+        }
+      }
+      if (c == '(' || c == ')') {
+        toReturn.add(String.valueOf(c));
+      }
+    }
+    return toReturn;
+  }
+
+  private boolean nextIs(final String token) {
+    return next < tokens.size() && tokens.get(next).equals(token);
+  }
+
+  private PostingsCursor parseOr() {
+    List<PostingsCursor> parts = new ArrayList<>();
+    parts.add(parseAnd());
+    while (nextIs("OR")) {
+      next++;
+      parts.add(parseAnd());
+    }
+    if (parts.size() == 1) {
+      return parts.get(0);
+    }
+    return new Or(parts.toArray(new PostingsCursor[0]));
+  }
+
+  private PostingsCursor parseAnd() {
+    List<PostingsCursor> parts = new ArrayList<>();
+    parts.add(parseNot());
+    while (next < tokens.size() && !nextIs("OR") && !nextIs(")")) {
+      if (nextIs("AND")) {
+        next++;
+      }
+      parts.add(parseNot());
+    }
+    if (parts.size() == 1) {
+      return parts.get(0);
+    }
+    return new And(parts.toArray(new PostingsCursor[0]));
+  }
+
+  private PostingsCursor parseNot() {
+    if (next == tokens.size()) {
+      throw new IllegalArgumentException("search ends with an operator");
+    }
+    String token = tokens.get(next++);
+    if (token.equals("NOT")) {
+      return new Not(parseNot(), placeCount);
+    }
+    if (token.equals("(")) {
+      PostingsCursor inside = parseOr();
+      if (!nextIs(")")) {
+        throw new IllegalArgumentException("missing )");
+      }
+      next++;
+      return inside;
+    }
+    if (!token.startsWith(":")) {
+      throw new IllegalArgumentException("unexpected " + token);
+    }
+    PostingsCursor cursor = lookup.apply(token.substring(1));
+    if (cursor == null) {
+      return new Empty();
+    }
+    return cursor;
+  }
+
+  // Matches no places, used for words that no place contains
+  private static final class Empty extends PostingsCursor {
+    @Override
+    int position() {
+      return END;
+    }
+
+    @Override
+    int advance(final int target) {
+      return END;
+    }
+  }
+
+  // Matches places matched by every part
+  private static final class And extends PostingsCursor {
+    private final PostingsCursor[] parts;
+    private int current = -1;
+
+    private And(final PostingsCursor[] setParts) {
+      parts = setParts;
+    }
+
+    @Override
+    int position() {
+      return current;
+    }
+
+    /*
+     * Advance each part to the candidate, and whenever one skips past it, make its position the new
+     * candidate and start over.
+     * Once every part lands on the candidate it matches them all.
+     */
+    @Override
+    int advance(final int target) {
+      if (current >= target) {
+        return current;
+      }
+      int candidate = target;
+      int agreed = 0;
+      int i = 0;
+      while (agreed < parts.length) {
+        int position = parts[i].advance(candidate);
+        if (position == END) {
+          current = END;
+          return END;
+        }
+        if (position == candidate) {
+          agreed++;
+        } else {
+          candidate = position;
+          agreed = 1;
+        }
+        i = (i + 1) % parts.length;
+      }
+      current = candidate;
+      return current;
+    }
+  }
+
+  // Matches places matched by any part
+  private static final class Or extends PostingsCursor {
+    private final PostingsCursor[] parts;
+    private int current = -1;
+
+    private Or(final PostingsCursor[] setParts) {
+      parts = setParts;
+    }
+
+    @Override
+    int position() {
+      return current;
+    }
+
+    @Override
+    int advance(final int target) {
+      if (current >= target) {
+        return current;
+      }
+      int lowest = END;
+      for (PostingsCursor part : parts) {
+        lowest = Math.min(lowest, part.advance(target));
+      }
+      current = lowest;
+      return current;
+    }
+  }
+
+  // Matches places not matched by the part
+  private static final class Not extends PostingsCursor {
+    private final PostingsCursor part;
+    private final int placeCount;
+    private int current = -1;
+
+    private Not(final PostingsCursor setPart, final int setPlaceCount) {
+      part = setPart;
+      placeCount = setPlaceCount;
+    }
+
+    @Override
+    int position() {
+      return current;
+    }
+
+    @Override
+    int advance(final int target) {
+      if (current >= target) {
+        return current;
+      }
+      int candidate = target;
+      while (candidate < placeCount && part.advance(candidate) == candidate) {
+        candidate++;
+      }
+      if (candidate >= placeCount) {
+        candidate = END;
+      }
+      current = candidate;
+      return current;
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package edu.illinois.cs.cs124.ay2022.mp.models;
+
+/*
+ * Compact list of place positions in increasing order, used by boolean searches.
+ *
+ * Rather than storing each position as a four-byte int, we store the difference from the previous
+ * position using as few bytes as possible, seven bits per byte with the high bit set on every byte
+ * but the last.
+ * Words that appear in many places have small differences between positions, so most positions
+ * take a single byte.
+ *
+ * The differences have to be added up from the start to find any position, which would make it
+ * slow to skip ahead.
+ * So the positions are split into blocks, and we also store the first position of each block and
+ * where its differences start.
+ * Skipping ahead then searches that table for the right block and only reads differences within
+ * it.
+ */
+final class CompressedPostings {
+  // Number of positions in each block
+  private static final int BLOCK_SIZE = 64;
+
+  private final int count;
+
+  // First position in each block, and the offset in bytes of the differences that follow it
+  private final int[] blockFirsts;
+  private final int[] blockOffsets;
+
+  // Differences between positions within each block
+  private final byte[] bytes;
+
+  // Positions must be in increasing order
+  CompressedPostings(final int[] positions) {
+    count = positions.length;
+    int blocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    blockFirsts = new int[blocks];
+    blockOffsets = new int[blocks];
+
+    int size = 0;
+    for (int i = 0; i < count; i++) {
+      if (i % BLOCK_SIZE != 0) {
+        size += encodedSize(positions[i] - positions[i - 1]);
+      }
+    }
+    bytes = new byte[size];
+
+    int offset = 0;
+    for (int i = 0; i < count; i++) {
+      if (i % BLOCK_SIZE == 0) {
+        blockFirsts[i / BLOCK_SIZE] = positions[i];
+        blockOffsets[i / BLOCK_SIZE] = offset;
+        continue;
+      }
+      int difference = positions[i] - positions[i - 1];
+      while (difference >= 0x80) {
+        bytes[offset++] = (byte) (difference | 0x80);
+        difference >>>= 7;
+      }
+      bytes[offset++] = (byte) difference;
+    }
+  }
+
+  private static int encodedSize(final int difference) {
+    int size = 1;
+    for (int remaining = difference >>> 7; remaining != 0; remaining >>>= 7) {
+      size++;
+    }
+    return size;
+  }
+
+  int size() {
+    return count;
+  }
+
+  // Size of the compressed list in bytes, not counting object overhead
+  int byteSize() {
+    return bytes.length + (blockFirsts.length + blockOffsets.length) * Integer.BYTES;
+  }
+
+  PostingsCursor cursor() {
+    return new Cursor();
+  }
+
+  private final class Cursor extends PostingsCursor {
+    // Index of the current position, its block, and the offset of the next difference
+    private int index = -1;
+    private int block = -1;
+    private int offset = 0;
+    private int current = -1;
+
+    @Override
+    int position() {
+      return current;
+    }
+
+    private void next() {
+      index++;
+      if (index >= count) {
+        current = END;
+      } else if (index % BLOCK_SIZE == 0) {
+        block++;
+        current = blockFirsts[block];
+        offset = blockOffsets[block];
+      } else {
+        int difference = 0;
+        int shift = 0;
+        byte encoded;
+        do {
+          encoded = bytes[offset++];
+          difference |= (encoded & 0x7f) << shift;
+          shift += 7;
+        } while (encoded < 0);
+        current += difference;
+      }
+    }
+
+    /*
+     * Find the last block starting at or before the target, by doubling the distance we look ahead
+     * until we pass the target and then searching the last gap.
+     * This takes time logarithmic in the distance skipped, rather than in the length of the list,
+     * so advancing by small steps stays cheap.
+     */
+    @Override
+    int advance(final int target) {
+      if (current >= target) {
+        return current;
+      }
+      int low = Math.max(block, 0);
+      if (low < blockFirsts.length && blockFirsts[low] <= target) {
+        int step = 1;
+        while (low + step < blockFirsts.length && blockFirsts[low + step] <= target) {
+          low += step;
+          step *= 2;
+        }
+        int high = Math.min(low + step, blockFirsts.length) - 1;
+        while (low < high) {
+          int middle = (low + high + 1) >>> 1;
+          if (blockFirsts[middle] <= target) {
+            low = middle;
+          } else {
+            high = middle - 1;
+          }
+        }
+        if (low > block) {
+          block = low;
+          index = low * BLOCK_SIZE;
+          current = blockFirsts[low];
+          offset = blockOffsets[low];
+        }
+      }
+      while (current < target) {
+        next();
+      }
+      return current;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package edu.illinois.cs.cs124.ay2022.mp.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Prefix search that reuses its previous results while the user is typing.
+ *
+ * Each keystroke usually adds a character to the end of the search.
+ * Every place with a word beginning with "squir" also has a word beginning with "squi", so when the
+ * new search extends the previous one, the new results are some of the previous results.
+ * Rather than searching the whole list again, we check only the previous results, so the work done
+ * for each keystroke shrinks along with the results.
+ * When the search gets shorter or changes in some other way we search the whole index again.
+ *
+ * Returns exactly the same results as PlaceIndex.searchPrefix.
+ * Create one for each list of places, alongside its PlaceIndex.
+ * Keeps the previous results and a tokenizer, so it should only be used by one thread at a time.
+ */
+public final class NarrowingSearch {
+  private final PlaceIndex index;
+  private final PlaceTokenizer tokenizer = new PlaceTokenizer();
+
+  // Previous normalized search and its results, or null before the first search
+  private String lastSearch = null;
+  private List<Place> lastResults = null;
+
+  public NarrowingSearch(final PlaceIndex setIndex) {
+    if (setIndex == null) {
+      throw new IllegalArgumentException();
+    }
+    index = setIndex;
+  }
+
+  // Same as PlaceIndex.searchPrefix
+  public List<Place> searchPrefix(final String prefix) {
+    if (prefix == null) {
+      throw new IllegalArgumentException();
+    }
+    String search = prefix.trim().toLowerCase();
+    if (index.getPlaces().size() == 0 || search.length() == 0) {
+      lastSearch = null;
+      lastResults = null;
+      return index.getPlaces();
+    }
+
+    List<Place> results;
+    if (lastSearch != null && search.startsWith(lastSearch)) {
+      results = new ArrayList<>();
+      for (Place place : lastResults) {
+        if (place.getDescription() != null
+            && tokenizer.containsPrefix(place.getDescription(), search)) {
+          results.add(place);
+        }
+      }
+    } else {
+      results = index.searchPrefix(search);
+    }
+    lastSearch = search;
+    lastResults = results;
+    return new ArrayList<>(results);
+  }
+}
@@ -1,6 +1,5 @@
 package edu.illinois.cs.cs124.ay2022.mp.models;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /*
@@ -31,8 +30,20 @@ public final class Place {
     npg = setNpg;
   }
 
+  /*
+   * Pool holding a single copy of each name and npg, which are repeated across many places.
+   * Places deserialized by Jackson use the pooled copies, and so do places loaded from places.csv.
+   * The constructor doesn't, since it is also used for places decoded only to be sent and
+   * discarded, which would gain nothing from sharing but would still pay for the lookups.
+   */
+  private static final StringPool SHARED_STRINGS = new StringPool();
+
+  // Pool used for names and npg values, mainly to check how much memory it saves
+  public static StringPool getSharedStrings() {
+    return SHARED_STRINGS;
+  }
+
   // ID of the place
-  private String npg;
   private String id;
 
   public String getId() {
@@ -46,6 +57,11 @@ public final class Place {
     return name;
   }
 
+  // Used by Jackson when deserializing a place, so that the name is pooled
+  private void setName(final String setName) {
+    name = SHARED_STRINGS.intern(setName);
+  }
+
   // Latitude and longitude of the place
   private double latitude = 99999.0;
 
@@ -66,6 +82,24 @@ public final class Place {
     return description;
   }
 
+  // Short code for the group that added the place, from the npg column of places.csv
+  private String npg;
+
+  public String getNpg() {
+    return npg;
+  }
+
+  // Used by Jackson when deserializing a place, so that the npg is pooled
+  private void setNpg(final String setNpg) {
+    npg = SHARED_STRINGS.intern(setNpg);
+  }
+
+  /*
+   * Return the places whose description contains the search term as a whole word, ignoring case.
+   * Uses a PlaceIndex, which is reused as long as the same places are searched.
+   * Callers that search the same list repeatedly can also create their own PlaceIndex and search
+   * it directly.
+   */
   public static List<Place> search(final List<Place> places, final String search) {
     if (places == null || search == null) {
       throw new IllegalArgumentException();
@@ -73,32 +107,70 @@ public final class Place {
     if (places.size() == 0 || search.length() == 0 || search.equals(" ")) {
       return places;
     }
-    List<Place> copy = new ArrayList<>();
-    String trimmed = search.trim();
-    String trimmed1 = trimmed.toLowerCase();
-    for (Place o : places) {
-      String desc = o.description;
-      String desc1 = desc.replace('.', ' ');
-      String desc2 = desc1.replace('!', ' ');
-      String desc3 = desc2.replace('?', ' ');
-      String desc4 = desc3.replace(',', ' ');
-      String desc5 = desc4.replace(':', ' ');
-      String desc6 = desc5.replace(';', ' ');
-      String desc7 = desc6.replace('/', ' ');
-      String desc8 = desc7.replace("-", "");
-      String desc9 = desc8.replace("(", "");
-      String desc10 = desc9.replace(")", "");
-      String desc11 = desc10.replace("'", "");
-      String desc12 = desc11.toLowerCase();
-      String[] desc13 = desc12.split(" ");
-      for (String b : desc13) {
-        if (trimmed1.equals(b)) {
-          if (!copy.contains(o)) {
-            copy.add(o);
-          }
-        }
-      }
+    return PlaceIndex.of(places).search(search);
+  }
+
+  /*
+   * Return the places whose description contains a word beginning with the search term, ignoring
+   * case.
+   * Used to show results while the user is still typing, so "squir" finds places mentioning
+   * squirrels.
+   */
+  public static List<Place> searchPrefix(final List<Place> places, final String prefix) {
+    if (places == null || prefix == null) {
+      throw new IllegalArgumentException();
+    }
+    if (places.size() == 0 || prefix.trim().length() == 0) {
+      return places;
+    }
+    return PlaceIndex.of(places).searchPrefix(prefix);
+  }
+
+  /*
+   * Return the places whose description contains a word within maxDistance edits of the search
+   * term, ignoring case.
+   * Used to find places even when the search term is misspelled.
+   */
+  public static List<Place> searchFuzzy(
+      final List<Place> places, final String search, final int maxDistance) {
+    if (places == null || search == null || maxDistance < 0) {
+      throw new IllegalArgumentException();
+    }
+    if (places.size() == 0 || search.trim().length() == 0) {
+      return places;
+    }
+    return PlaceIndex.of(places).searchFuzzy(search, maxDistance);
+  }
+
+  /*
+   * Return up to limit places matching any of the words in the search, best match first.
+   * Searches descriptions, names, and npgs, so "thai food" finds places mentioning either word,
+   * with places mentioning both first.
+   */
+  public static List<Place> searchRanked(
+      final List<Place> places, final String search, final int limit) {
+    if (places == null || search == null || limit < 1) {
+      throw new IllegalArgumentException();
+    }
+    if (places.size() == 0 || search.trim().length() == 0) {
+      return places;
+    }
+    return PlaceIndex.of(places).searchRanked(search, limit);
+  }
+
+  /*
+   * Return the places matching a boolean search like "coffee AND NOT starbucks".
+   * Words are combined using AND, OR, NOT, and parentheses, and words without an operator between
+   * them must all match.
+   * Throws IllegalArgumentException if the search is not valid.
+   */
+  public static List<Place> searchBoolean(final List<Place> places, final String search) {
+    if (places == null || search == null) {
+      throw new IllegalArgumentException();
+    }
+    if (places.size() == 0 || search.trim().length() == 0) {
+      return places;
     }
-    return copy;
+    return PlaceIndex.of(places).searchBoolean(search);
   }
 }
@@ -0,0 +1,46 @@
+package edu.illinois.cs.cs124.ay2022.mp.models;
+
+import java.util.List;
+
+/*
+ * Model storing the changes to the list of places since a given version, as returned by
+ * GET /places?since=.
+ *
+ * If the server could not determine what had changed, resync is true and places contains the
+ * entire list rather than only the places that changed.
+ */
+@SuppressWarnings("unused")
+public final class PlaceChanges {
+  /*
+   * The Jackson JSON serialization library that we are using requires an empty constructor.
+   * So don't remove this!
+   */
+  public PlaceChanges() {}
+
+  public PlaceChanges(final long setVersion, final boolean setResync, final List<Place> setPlaces) {
+    version = setVersion;
+    resync = setResync;
+    places = setPlaces;
+  }
+
+  // Version of the list of places that these changes bring the caller up to
+  private long version;
+
+  public long getVersion() {
+    return version;
+  }
+
+  // Whether places contains the entire list rather than only what changed
+  private boolean resync;
+
+  public boolean isResync() {
+    return resync;
+  }
+
+  // Places that were added or replaced, in the order that they changed
+  private List<Place> places;
+
+  public List<Place> getPlaces() {
+    return places;
+  }
+}
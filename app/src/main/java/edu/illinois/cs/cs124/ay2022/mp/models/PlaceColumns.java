@@ -0,0 +1,238 @@
+package edu.illinois.cs.cs124.ay2022.mp.models;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * Compact read-only storage for a large list of places, one column per field.
+ *
+ * Each Place is a separate object, and so is each of its four strings, and every object carries a
+ * header and padding on top of its contents.
+ * For short strings like ours that overhead is more than the data itself.
+ * Instead, we store every field in a single buffer, laid out in sections:
+ *
+ * - a header holding the number of places and the size of the string heap
+ * - the latitudes, then the longitudes, as doubles
+ * - each ID as the two longs of its UUID
+ * - the offset and length of each place's name, description, and npg in the string heap, with a
+ *   length of -1 for null
+ * - the string heap, holding every string as UTF-8 one after another
+ *
+ * Each place then costs its coordinates, its ID, its string offsets, and the bytes of its strings,
+ * and the whole list is only a handful of objects no matter how many places it holds.
+ * Every field is at a position calculated from the place's position, so a place can be decoded
+ * without looking at any of the others.
+ *
+ * The buffer can be built in memory from a list of places, or it can be a file mapped into memory,
+ * which is how PackedPlaces saves places.csv.
+ * A mapped file is used exactly as it is, so it is never decoded as a whole, and the operating
+ * system only reads the parts that are used.
+ *
+ * Places are decoded from the columns when they are retrieved, and the Place returned is a new
+ * object each time that can be discarded once used.
+ */
+public final class PlaceColumns {
+  // Number of places and size of the string heap
+  private static final int HEADER_SIZE = Integer.BYTES * 2;
+
+  // Name, description, and npg, each with an offset and length
+  private static final int STRING_COUNT = 3;
+  private static final int STRING_ENTRY_SIZE = Integer.BYTES * 2;
+
+  // Length recorded for a string that is null
+  private static final int NULL_LENGTH = -1;
+
+  private final ByteBuffer buffer;
+  private final int size;
+
+  // Start of each section of the buffer
+  private final int longitudesStart;
+  private final int idsStart;
+  private final int stringsStart;
+  private final int heapStart;
+
+  /*
+   * Store a list of places in columns.
+   * Throws IllegalArgumentException if any place's ID is not a UUID.
+   */
+  public PlaceColumns(final List<Place> places) {
+    this(encode(places));
+  }
+
+  /*
+   * Use columns that are already laid out in a buffer, such as a mapped file.
+   * The buffer must not be changed afterward.
+   * Throws IllegalArgumentException if the buffer is not a complete set of columns, including if
+   * any string lies outside it, so that decoding a place can never read outside the buffer.
+   */
+  public static PlaceColumns wrap(final ByteBuffer buffer) {
+    return new PlaceColumns(buffer.slice());
+  }
+
+  private PlaceColumns(final ByteBuffer setBuffer) {
+    buffer = setBuffer;
+    if (buffer.capacity() < HEADER_SIZE) {
+      throw new IllegalArgumentException("place columns are damaged");
+    }
+    size = buffer.getInt(0);
+    int heapSize = buffer.getInt(Integer.BYTES);
+    // Computed as longs, since a damaged size could overflow an int
+    long longitudes = HEADER_SIZE + (long) size * Double.BYTES;
+    long ids = longitudes + (long) size * Double.BYTES;
+    long strings = ids + (long) size * Long.BYTES * 2;
+    long heap = strings + (long) size * STRING_COUNT * STRING_ENTRY_SIZE;
+    if (size < 0 || heapSize < 0 || buffer.capacity() != heap + heapSize) {
+      throw new IllegalArgumentException("place columns are damaged");
+    }
+    longitudesStart = (int) longitudes;
+    idsStart = (int) ids;
+    stringsStart = (int) strings;
+    heapStart = (int) heap;
+    // Only the string table needs checking, since any bytes are valid coordinates and IDs
+    for (int string = 0; string < size * STRING_COUNT; string++) {
+      int entry = stringsStart + string * STRING_ENTRY_SIZE;
+      int offset = buffer.getInt(entry);
+      int length = buffer.getInt(entry + Integer.BYTES);
+      if (length != NULL_LENGTH
+          && (offset < 0 || length < 0 || (long) offset + length > heapSize)) {
+        throw new IllegalArgumentException("place columns are damaged");
+      }
+    }
+  }
+
+  // Lay out a list of places in a new buffer
+  private static ByteBuffer encode(final List<Place> places) {
+    if (places == null) {
+      throw new IllegalArgumentException();
+    }
+    int count = places.size();
+    byte[][] strings = new byte[count * STRING_COUNT][];
+    long heapSize = 0;
+    for (int position = 0; position < count; position++) {
+      Place place = places.get(position);
+      String[] fields = {place.getName(), place.getDescription(), place.getNpg()};
+      for (int field = 0; field < STRING_COUNT; field++) {
+        if (fields[field] != null) {
+          byte[] encoded = fields[field].getBytes(StandardCharsets.UTF_8);
+          strings[position * STRING_COUNT + field] = encoded;
+          heapSize += encoded.length;
+        }
+      }
+    }
+    long total =
+        HEADER_SIZE
+            + (long) count * (Double.BYTES * 2 + Long.BYTES * 2 + STRING_COUNT * STRING_ENTRY_SIZE)
+            + heapSize;
+    if (total > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("too many places to store in columns");
+    }
+
+    ByteBuffer toReturn = ByteBuffer.allocate((int) total);
+    toReturn.putInt(count).putInt((int) heapSize);
+    for (Place place : places) {
+      toReturn.putDouble(place.getLatitude());
+    }
+    for (Place place : places) {
+      toReturn.putDouble(place.getLongitude());
+    }
+    for (Place place : places) {
+      UUID id = PlaceId.parse(place.getId());
+      if (id == null) {
+        throw new IllegalArgumentException("invalid ID " + place.getId());
+      }
+      toReturn.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+    }
+    int offset = 0;
+    for (byte[] string : strings) {
+      toReturn.putInt(offset);
+      if (string == null) {
+        toReturn.putInt(NULL_LENGTH);
+      } else {
+        toReturn.putInt(string.length);
+        offset += string.length;
+      }
+    }
+    for (byte[] string : strings) {
+      if (string != null) {
+        toReturn.put(string);
+      }
+    }
+    toReturn.flip();
+    return toReturn;
+  }
+
+  // The columns laid out in a buffer, for saving them to a file
+  public ByteBuffer getBuffer() {
+    return buffer.asReadOnlyBuffer();
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public double getLatitude(final int position) {
+    return buffer.getDouble(HEADER_SIZE + checkPosition(position) * Double.BYTES);
+  }
+
+  public double getLongitude(final int position) {
+    return buffer.getDouble(longitudesStart + checkPosition(position) * Double.BYTES);
+  }
+
+  // ID of the place at a position, which is returned in lowercase
+  public String getId(final int position) {
+    return getUuid(position).toString();
+  }
+
+  // ID of the place at a position as a UUID, for use as a key without formatting it
+  public UUID getUuid(final int position) {
+    int start = idsStart + checkPosition(position) * Long.BYTES * 2;
+    return new UUID(buffer.getLong(start), buffer.getLong(start + Long.BYTES));
+  }
+
+  public String getName(final int position) {
+    return string(position, 0);
+  }
+
+  public String getDescription(final int position) {
+    return string(position, 1);
+  }
+
+  public String getNpg(final int position) {
+    return string(position, 2);
+  }
+
+  // Decode the place at a position
+  public Place get(final int position) {
+    return new Place(
+        getId(position),
+        getName(position),
+        getLatitude(position),
+        getLongitude(position),
+        getNpg(position),
+        getDescription(position));
+  }
+
+  // Positions are checked, since a bad one would otherwise read another section of the buffer
+  private int checkPosition(final int position) {
+    if (position < 0 || position >= size) {
+      throw new IndexOutOfBoundsException();
+    }
+    return position;
+  }
+
+  private String string(final int position, final int field) {
+    int entry = stringsStart + (checkPosition(position) * STRING_COUNT + field) * STRING_ENTRY_SIZE;
+    int length = buffer.getInt(entry + Integer.BYTES);
+    if (length == NULL_LENGTH) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    // Use our own view of the buffer, since reading moves its position
+    ByteBuffer view = buffer.duplicate();
+    view.position(heapStart + buffer.getInt(entry));
+    view.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,75 @@
+package edu.illinois.cs.cs124.ay2022.mp.models;
+
+import java.util.UUID;
+
+/*
+ * Parses place IDs, which are UUIDs like "36d64c8b-a44b-4909-b5fe-c905f9d24403".
+ *
+ * Places carry their ID as a String, since that is how it appears in JSON and in places.csv.
+ * As a String each ID takes 36 characters plus the overhead of two objects, and comparing or
+ * hashing one means looking at every character.
+ * A UUID holds the same 128 bits as two longs, so code that keeps or compares many IDs parses them
+ * once and uses the UUID instead, converting back to a String only when sending a place as JSON.
+ *
+ * UUID.fromString is not used because it accepts strings that are not UUIDs, like "1-2-3-4-5".
+ */
+public final class PlaceId {
+  // Characters in a UUID, and the positions of its dashes
+  private static final int LENGTH = 36;
+  private static final int[] DASHES = {8, 13, 18, 23};
+
+  // Position of the dash between the two halves
+  private static final int MIDDLE = 18;
+
+  // Hexadecimal digits hold four bits, and the letters come after the ten decimal digits
+  private static final int BITS_PER_DIGIT = 4;
+  private static final int DECIMAL_DIGITS = 10;
+
+  private PlaceId() {}
+
+  /*
+   * Parse an ID, returning null if it is not a UUID written as 32 hexadecimal digits in groups of
+   * 8, 4, 4, 4, and 12 separated by dashes.
+   * Either case is accepted, and IDs that differ only in case parse to the same UUID.
+   */
+  public static UUID parse(final String id) {
+    if (id == null || id.length() != LENGTH) {
+      return null;
+    }
+    long high = 0;
+    long low = 0;
+    int nextDash = 0;
+    for (int i = 0; i < LENGTH; i++) {
+      char c = id.charAt(i);
+      if (nextDash < DASHES.length && i == DASHES[nextDash]) {
+        if (c != '-') {
+          return null;
+        }
+        nextDash++;
+        continue;
+      }
+      int digit = hexDigit(c);
+      if (digit < 0) {
+        return null;
+      }
+      if (i < MIDDLE) {
+        high = (high << BITS_PER_DIGIT) | digit;
+      } else {
+        low = (low << BITS_PER_DIGIT) | digit;
+      }
+    }
+    return new UUID(high, low);
+  }
+
+  // Value of a hexadecimal digit, or -1 if it isn't one
+  private static int hexDigit(final char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    } else if (c >= 'a' && c <= 'f') {
+      return c - 'a' + DECIMAL_DIGITS;
+    } else if (c >= 'A' && c <= 'F') {
+      return c - 'A' + DECIMAL_DIGITS;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,380 @@
+package edu.illinois.cs.cs124.ay2022.mp.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Inverted index over place descriptions, used to search a list of places.
+ *
+ * Searching by scanning every description means splitting every description into words on every
+ * search.
+ * Instead, we split each description into words once, when the index is created, and record which
+ * places contain each word.
+ * A search then only needs to look up the query in that map, and the work done is proportional to
+ * the number of matching places.
+ *
+ * Places are identified by their position in the list, and each word maps to the positions of the
+ * places that contain it in increasing order, so results are returned in list order.
+ *
+ * The words are also kept in sorted order, so that every word beginning with a prefix can be
+ * found with a binary search followed by a walk over the neighboring words.
+ * This lets us show results as the user types, before they have finished typing a word.
+ *
+ * The results of recent searches are also cached, so repeating a search just copies its results.
+ *
+ * Create an index when a list of places arrives and reuse it for every search of that list.
+ * The index keeps the list that it was created from, which should not be modified afterward.
+ */
+public final class PlaceIndex {
+  // Places that this index was created from
+  private final List<Place> places;
+
+  // Positions of the places whose description contains each word
+  private final Map<String, int[]> postings;
+
+  // Every word in the index, in sorted order, and the positions of the places containing each word
+  private final String[] words;
+  private final int[][] wordPositions;
+
+  public PlaceIndex(final List<Place> setPlaces) {
+    if (setPlaces == null) {
+      throw new IllegalArgumentException();
+    }
+    places = setPlaces;
+
+    Builder builder = new Builder();
+    PlaceTokenizer tokenizer = new PlaceTokenizer();
+    for (int position = 0; position < places.size(); position++) {
+      String description = places.get(position).getDescription();
+      if (description != null) {
+        builder.position = position;
+        tokenizer.tokenize(description, builder);
+      }
+    }
+    postings = builder.finish();
+
+    words = postings.keySet().toArray(new String[0]);
+    Arrays.sort(words);
+    wordPositions = new int[words.length][];
+    for (int i = 0; i < words.length; i++) {
+      wordPositions[i] = postings.get(words[i]);
+    }
+  }
+
+  /*
+   * Collects the positions for each word into growable arrays while the index is being created.
+   * Arrays are trimmed to their actual size once every place has been added.
+   */
+  private static final class Builder implements PlaceTokenizer.TokenConsumer {
+    private final Map<String, int[]> positions = new HashMap<>();
+    private final Map<String, Integer> sizes = new HashMap<>();
+
+    // Position of the place currently being tokenized
+    private int position;
+
+    @Override
+    public boolean accept(final char[] token, final int length) {
+      String word = new String(token, 0, length);
+      int[] current = positions.get(word);
+      if (current == null) {
+        positions.put(word, new int[] {position});
+        sizes.put(word, 1);
+        return true;
+      }
+      int size = sizes.get(word);
+      // Each place only appears once for each word, even if the word appears more than once
+      if (current[size - 1] == position) {
+        return true;
+      }
+      if (size == current.length) {
+        current = Arrays.copyOf(current, size * 2);
+        positions.put(word, current);
+      }
+      current[size] = position;
+      sizes.put(word, size + 1);
+      return true;
+    }
+
+    private Map<String, int[]> finish() {
+      for (Map.Entry<String, int[]> entry : positions.entrySet()) {
+        entry.setValue(Arrays.copyOf(entry.getValue(), sizes.get(entry.getKey())));
+      }
+      return positions;
+    }
+  }
+
+  public List<Place> getPlaces() {
+    return places;
+  }
+
+  // Number of recent searches whose results are cached
+  private static final int CACHE_SIZE = 64;
+
+  // Results of recent searches, which stay valid because the list of places never changes
+  private final SearchCache cache = new SearchCache(CACHE_SIZE);
+
+  // Number of searches answered from the cache
+  public long getCacheHits() {
+    return cache.getHits();
+  }
+
+  // Number of searches that had to be performed because they were not in the cache
+  public long getCacheMisses() {
+    return cache.getMisses();
+  }
+
+  /*
+   * Return the places whose description contains the search term as a whole word, ignoring case,
+   * in the order they appear in the list.
+   * An empty search returns the entire list, as does searching an empty list.
+   */
+  public List<Place> search(final String search) {
+    if (search == null) {
+      throw new IllegalArgumentException();
+    }
+    if (places.size() == 0 || search.length() == 0 || search.equals(" ")) {
+      return places;
+    }
+    String word = search.trim().toLowerCase();
+    return cache.get(
+        "search:" + word,
+        () -> {
+          int[] positions = postings.get(word);
+          if (positions == null) {
+            return new ArrayList<>();
+          }
+          return placesAt(positions);
+        });
+  }
+
+  /*
+   * Return the places whose description contains a word beginning with the search term, ignoring
+   * case, in the order they appear in the list.
+   * An empty search returns the entire list, as does searching an empty list.
+   *
+   * Words beginning with the prefix are next to each other in sorted order, so we find the first
+   * one with a binary search and stop at the first word that does not match.
+   * The work done is proportional to the number of matching words and places, plus the logarithm
+   * of the number of words.
+   */
+  public List<Place> searchPrefix(final String prefix) {
+    if (prefix == null) {
+      throw new IllegalArgumentException();
+    }
+    String search = prefix.trim().toLowerCase();
+    if (places.size() == 0 || search.length() == 0) {
+      return places;
+    }
+    return cache.get("prefix:" + search, () -> findPrefix(search));
+  }
+
+  private List<Place> findPrefix(final String search) {
+    int first = Arrays.binarySearch(words, search);
+    if (first < 0) {
+      first = -first - 1;
+    }
+    int last = first;
+    while (last < words.length && words[last].startsWith(search)) {
+      last++;
+    }
+    int[] matching = new int[last - first];
+    for (int i = first; i < last; i++) {
+      matching[i - first] = i;
+    }
+    return placesContaining(matching, matching.length);
+  }
+
+  /*
+   * Return the places whose description contains a word within maxDistance edits of the search
+   * term, ignoring case, in the order they appear in the list.
+   * An edit inserts, removes, or changes one character, so with a maxDistance of 1 "squirels" finds
+   * places mentioning squirrels.
+   * An empty search returns the entire list, as does searching an empty list.
+   *
+   * Comparing the search term against every word would be slow for large lists, so the words are
+   * arranged in a WordTree that lets us skip most of them.
+   * The tree is only built the first time a fuzzy search is performed.
+   */
+  public List<Place> searchFuzzy(final String search, final int maxDistance) {
+    if (search == null || maxDistance < 0) {
+      throw new IllegalArgumentException();
+    }
+    String word = search.trim().toLowerCase();
+    if (places.size() == 0 || word.length() == 0) {
+      return places;
+    }
+    return cache.get(
+        "fuzzy:" + maxDistance + ":" + word,
+        () -> {
+          int[] matching = getWordTree().find(word, maxDistance);
+          return placesContaining(matching, matching.length);
+        });
+  }
+
+  // Built on first use by searchFuzzy
+  private WordTree wordTree = null;
+
+  private synchronized WordTree getWordTree() {
+    if (wordTree == null) {
+      wordTree = new WordTree(words);
+    }
+    return wordTree;
+  }
+
+  /*
+   * Return up to limit places matching any of the words in the search, best match first.
+   * Unlike the other searches, this also looks at the name and npg of each place, and places are
+   * ranked by how well they match using a RankedIndex.
+   * An empty search returns the entire list, as does searching an empty list.
+   *
+   * The ranked index is only built the first time a ranked search is performed.
+   */
+  public List<Place> searchRanked(final String search, final int limit) {
+    if (search == null || limit < 1) {
+      throw new IllegalArgumentException();
+    }
+    if (places.size() == 0 || search.trim().length() == 0) {
+      return places;
+    }
+    return cache.get(
+        "ranked:" + limit + ":" + search.trim().toLowerCase(),
+        () -> getRankedIndex().search(search, limit));
+  }
+
+  // Built on first use by searchRanked
+  private RankedIndex rankedIndex = null;
+
+  private synchronized RankedIndex getRankedIndex() {
+    if (rankedIndex == null) {
+      rankedIndex = new RankedIndex(places);
+    }
+    return rankedIndex;
+  }
+
+  /*
+   * Return the places matching a boolean search like "coffee AND NOT starbucks", in the order they
+   * appear in the list.
+   * See BooleanQuery for the syntax, and note that the operators must be capitalized.
+   * An empty search returns the entire list, as does searching an empty list.
+   * Throws IllegalArgumentException if the search is not valid.
+   *
+   * Searches read from a compressed copy of the positions of the places containing each word,
+   * which is only built the first time a boolean search is performed.
+   */
+  public List<Place> searchBoolean(final String search) {
+    if (search == null) {
+      throw new IllegalArgumentException();
+    }
+    if (places.size() == 0 || search.trim().length() == 0) {
+      return places;
+    }
+    // Operators are case sensitive, so unlike other searches the case of the search matters
+    return cache.get("boolean:" + search.trim(), () -> findBoolean(search));
+  }
+
+  private List<Place> findBoolean(final String search) {
+    CompressedPostings[] compressed = getCompressedPostings();
+    PostingsCursor cursor =
+        BooleanQuery.parse(
+            search,
+            word -> {
+              int index = Arrays.binarySearch(words, word);
+              if (index < 0) {
+                return null;
+              }
+              return compressed[index].cursor();
+            },
+            places.size());
+    List<Place> toReturn = new ArrayList<>();
+    for (int position = cursor.advance(0);
+        position != PostingsCursor.END;
+        position = cursor.advance(position + 1)) {
+      toReturn.add(places.get(position));
+    }
+    return toReturn;
+  }
+
+  // Built on first use by searchBoolean, in the same order as words
+  private CompressedPostings[] compressedPostings = null;
+
+  private synchronized CompressedPostings[] getCompressedPostings() {
+    if (compressedPostings == null) {
+      compressedPostings = new CompressedPostings[words.length];
+      for (int i = 0; i < words.length; i++) {
+        compressedPostings[i] = new CompressedPostings(wordPositions[i]);
+      }
+    }
+    return compressedPostings;
+  }
+
+  /*
+   * Return the places containing any of the words at the given positions in the sorted word array,
+   * in list order.
+   * A place containing several of the words appears in several lists, so we combine the lists,
+   * sort them, and skip repeated positions.
+   */
+  private List<Place> placesContaining(final int[] wordIndexes, final int count) {
+    if (count == 1) {
+      return placesAt(wordPositions[wordIndexes[0]]);
+    }
+    int total = 0;
+    for (int i = 0; i < count; i++) {
+      total += wordPositions[wordIndexes[i]].length;
+    }
+    int[] matches = new int[total];
+    int filled = 0;
+    for (int i = 0; i < count; i++) {
+      int[] positions = wordPositions[wordIndexes[i]];
+      System.arraycopy(positions, 0, matches, filled, positions.length);
+      filled += positions.length;
+    }
+    Arrays.sort(matches);
+    List<Place> toReturn = new ArrayList<>();
+    for (int i = 0; i < matches.length; i++) {
+      if (i == 0 || matches[i] != matches[i - 1]) {
+        toReturn.add(places.get(matches[i]));
+      }
+    }
+    return toReturn;
+  }
+
+  // Return the places at the given positions, which are in increasing order
+  private List<Place> placesAt(final int[] positions) {
+    List<Place> toReturn = new ArrayList<>(positions.length);
+    for (int position : positions) {
+      toReturn.add(places.get(position));
+    }
+    return toReturn;
+  }
+
+  // Most recently used index for Place.search, reused when it is searched again
+  private static PlaceIndex lastUsed = null;
+
+  /*
+   * Retrieve an index for a list of places, reusing the previous one if it was created from a list
+   * containing the same places.
+   * Checking that is much cheaper than splitting every description again.
+   */
+  static synchronized PlaceIndex of(final List<Place> places) {
+    if (lastUsed == null || !lastUsed.matches(places)) {
+      lastUsed = new PlaceIndex(new ArrayList<>(places));
+    }
+    return lastUsed;
+  }
+
+  // Whether this index was created from the same places, in the same order, as the given list
+  private boolean matches(final List<Place> other) {
+    if (other.size() != places.size()) {
+      return false;
+    }
+    for (int i = 0; i < other.size(); i++) {
+      if (other.get(i) != places.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
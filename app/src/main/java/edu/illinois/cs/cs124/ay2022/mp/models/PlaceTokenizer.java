@@ -0,0 +1,165 @@
+package edu.illinois.cs.cs124.ay2022.mp.models;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+ * Splits place descriptions into lowercase words for searching.
+ *
+ * Sentence punctuation (.!?,:;), slashes, and spaces separate words, while hyphens, parentheses,
+ * and apostrophes are removed, so "Grainger's (24-hour) library." becomes "graingers", "24hour",
+ * and "library".
+ *
+ * This produces exactly the words that replacing the separators with spaces, removing the other
+ * characters, lowercasing, and calling split(" ") would, including the empty words produced by
+ * repeated separators.
+ * But rather than creating a new String for every one of those steps, we scan the description
+ * once and copy each word into a buffer that is reused for every word.
+ * Words containing only ASCII characters are lowercased in place, and only words containing other
+ * characters fall back to String.toLowerCase, since its rules for those depend on the locale and on
+ * neighboring characters.
+ *
+ * Tokenizers reuse their buffer, so each thread should use its own.
+ */
+public final class PlaceTokenizer {
+  // Receives each word as it is found
+  public interface TokenConsumer {
+    /*
+     * Called with a buffer holding the word in its first length characters.
+     * The buffer is reused for the next word, so copy anything that needs to be kept.
+     * Return false to stop tokenizing.
+     */
+    boolean accept(char[] token, int length);
+  }
+
+  private static final int INITIAL_BUFFER_SIZE = 32;
+
+  private char[] buffer = new char[INITIAL_BUFFER_SIZE];
+
+  // Whether a character separates words
+  private static boolean isSeparator(final char c) {
+    return c == ' ' || c == '.' || c == '!' || c == '?' || c == ',' || c == ':' || c == ';'
+        || c == '/';
+  }
+
+  // Whether a character is removed without separating words
+  private static boolean isRemoved(final char c) {
+    return c == '-' || c == '(' || c == ')' || c == '\'';
+  }
+
+  // Locales where even ASCII letters have special lowercase rules
+  private static boolean hasSpecialCasing(final Locale locale) {
+    String language = locale.getLanguage();
+    return language.equals("tr") || language.equals("az") || language.equals("lt");
+  }
+
+  /*
+   * Pass each word in the description to the consumer, in order.
+   * Returns false if the consumer stopped early.
+   */
+  public boolean tokenize(final String description, final TokenConsumer consumer) {
+    boolean specialCasing = hasSpecialCasing(Locale.getDefault());
+    int length = 0;
+    boolean ascii = true;
+    boolean separated = false;
+    // Empty words are only kept if a non-empty word follows them, matching split
+    int pendingEmpty = 0;
+
+    for (int i = 0; i < description.length(); i++) {
+      char c = description.charAt(i);
+      if (isSeparator(c)) {
+        separated = true;
+        if (length == 0) {
+          pendingEmpty++;
+          continue;
+        }
+        if (!emitEmpty(pendingEmpty, consumer) || !emit(length, ascii, specialCasing, consumer)) {
+          return false;
+        }
+        pendingEmpty = 0;
+        length = 0;
+        ascii = true;
+      } else if (!isRemoved(c)) {
+        if (length == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[length++] = c;
+        if (c >= 0x80) {
+          ascii = false;
+        }
+      }
+    }
+
+    // Like split, a description without separators produces one word even if it is empty
+    if (!separated || length > 0) {
+      return emitEmpty(pendingEmpty, consumer) && emit(length, ascii, specialCasing, consumer);
+    }
+    return true;
+  }
+
+  // Whether the description contains the given lowercase word
+  public boolean containsWord(final String description, final String word) {
+    // The consumer stops as soon as it finds a match, so tokenize returns false on a match
+    return !tokenize(
+        description,
+        (token, length) -> {
+          if (length != word.length()) {
+            return true;
+          }
+          for (int i = 0; i < length; i++) {
+            if (token[i] != word.charAt(i)) {
+              return true;
+            }
+          }
+          return false;
+        });
+  }
+
+  // Whether the description contains a word beginning with the given lowercase prefix
+  public boolean containsPrefix(final String description, final String prefix) {
+    return !tokenize(
+        description,
+        (token, length) -> {
+          if (length < prefix.length()) {
+            return true;
+          }
+          for (int i = 0; i < prefix.length(); i++) {
+            if (token[i] != prefix.charAt(i)) {
+              return true;
+            }
+          }
+          return false;
+        });
+  }
+
+  private boolean emitEmpty(final int count, final TokenConsumer consumer) {
+    for (int i = 0; i < count; i++) {
+      if (!consumer.accept(buffer, 0)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Lowercase the word in the buffer and pass it to the consumer
+  private boolean emit(
+      final int length,
+      final boolean ascii,
+      final boolean specialCasing,
+      final TokenConsumer consumer) {
+    if (ascii && !specialCasing) {
+      for (int i = 0; i < length; i++) {
+        if (buffer[i] >= 'A' && buffer[i] <= 'Z') {
+          buffer[i] = (char) (buffer[i] + ('a' - 'A'));
+        }
+      }
+      return consumer.accept(buffer, length);
+    }
+    String lowercase = new String(buffer, 0, length).toLowerCase();
+    if (lowercase.length() > buffer.length) {
+      buffer = new char[lowercase.length()];
+    }
+    lowercase.getChars(0, lowercase.length(), buffer, 0);
+    return consumer.accept(buffer, lowercase.length());
+  }
+}
@@ -0,0 +1,37 @@
+package edu.illinois.cs.cs124.ay2022.mp.models;
+
+import java.util.List;
+
+/*
+ * Model storing one page of the list of places, as returned by GET /places?limit=&cursor=.
+ *
+ * The cursor should be passed back to the server unchanged to retrieve the next page.
+ * It is null on the last page.
+ */
+@SuppressWarnings("unused")
+public final class PlacesPage {
+  /*
+   * The Jackson JSON serialization library that we are using requires an empty constructor.
+   * So don't remove this!
+   */
+  public PlacesPage() {}
+
+  public PlacesPage(final List<Place> setPlaces, final String setCursor) {
+    places = setPlaces;
+    cursor = setCursor;
+  }
+
+  // Places on this page, in order
+  private List<Place> places;
+
+  public List<Place> getPlaces() {
+    return places;
+  }
+
+  // Cursor used to retrieve the next page, or null if this is the last page
+  private String cursor;
+
+  public String getCursor() {
+    return cursor;
+  }
+}
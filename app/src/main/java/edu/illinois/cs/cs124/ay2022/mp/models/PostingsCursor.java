@@ -0,0 +1,23 @@
+package edu.illinois.cs.cs124.ay2022.mp.models;
+
+/*
+ * Walks forward through a list of place positions in increasing order.
+ *
+ * Used to evaluate boolean searches.
+ * Cursors over single words read positions from CompressedPostings, and cursors for AND, OR, and
+ * NOT combine other cursors, so a whole query can be evaluated one position at a time without
+ * building a list of positions for every part of it.
+ */
+abstract class PostingsCursor {
+  // Returned once there are no more positions
+  static final int END = Integer.MAX_VALUE;
+
+  // Current position, -1 before the first call to advance, or END once finished
+  abstract int position();
+
+  /*
+   * Move to the first position at or after the target and return it, or END if there is none.
+   * Never moves backward, so if the cursor is already at or past the target it stays where it is.
+   */
+  abstract int advance(int target);
+}
@@ -0,0 +1,284 @@
+package edu.illinois.cs.cs124.ay2022.mp.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/*
+ * Index used by PlaceIndex to rank places against searches containing several words.
+ *
+ * Places are scored using BM25, the ranking function used by many search engines.
+ * A place scores higher the more often it contains each search word, with repeated words
+ * contributing less and less, and words that appear in fewer places count for more.
+ * Matches in long fields count for less than matches in short ones, since a long description
+ * mentions many things.
+ *
+ * The description, name, and npg of each place are indexed separately, and matches in each are
+ * weighted differently before being combined, an extension of BM25 known as BM25F.
+ * For each word we record the places containing it along with how many times it appears, and for
+ * each place we record the length of each field, so a search only needs to look at the places
+ * containing at least one of the search words.
+ */
+final class RankedIndex {
+  // How quickly repeated words stop adding to the score
+  private static final double SATURATION = 1.2;
+
+  // How much field length affects the score, from 0 for not at all to 1 for fully
+  private static final double LENGTH_NORMALIZATION = 0.75;
+
+  // Relative importance of a match in each field
+  private static final double DESCRIPTION_WEIGHT = 1.0;
+  private static final double NAME_WEIGHT = 0.5;
+  private static final double NPG_WEIGHT = 0.25;
+
+  // Places containing a word in one field, in list order, and how many times each contains it
+  private static final class Postings {
+    private int[] positions = new int[1];
+    private int[] counts = new int[1];
+    private int size = 0;
+
+    private void add(final int position) {
+      if (size > 0 && positions[size - 1] == position) {
+        counts[size - 1]++;
+        return;
+      }
+      if (size == positions.length) {
+        positions = Arrays.copyOf(positions, size * 2);
+        counts = Arrays.copyOf(counts, size * 2);
+      }
+      positions[size] = position;
+      counts[size] = 1;
+      size++;
+    }
+  }
+
+  // Index over one field of every place
+  private static final class Field implements PlaceTokenizer.TokenConsumer {
+    private final double weight;
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final int[] lengths;
+    private double averageLength = 0;
+
+    // Position of the place currently being tokenized
+    private int position;
+
+    private Field(final double setWeight, final int count) {
+      weight = setWeight;
+      lengths = new int[count];
+    }
+
+    @Override
+    public boolean accept(final char[] token, final int length) {
+      // Repeated separators produce empty words, which should not count toward the length
+      if (length == 0) {
+        return true;
+      }
+      String word = new String(token, 0, length);
+      Postings current = postings.get(word);
+      if (current == null) {
+        current = new Postings();
+        postings.put(word, current);
+      }
+      current.add(position);
+      lengths[position]++;
+      return true;
+    }
+
+    private void add(final PlaceTokenizer tokenizer, final int setPosition, final String text) {
+      position = setPosition;
+      if (text != null) {
+        tokenizer.tokenize(text, this);
+      }
+    }
+
+    private void finish() {
+      for (Postings current : postings.values()) {
+        current.positions = Arrays.copyOf(current.positions, current.size);
+        current.counts = Arrays.copyOf(current.counts, current.size);
+      }
+      long total = 0;
+      for (int length : lengths) {
+        total += length;
+      }
+      if (lengths.length > 0) {
+        averageLength = (double) total / lengths.length;
+      }
+    }
+
+    // Weighted count of a word in a field, adjusted for the length of the field
+    private double adjustedCount(final int count, final int place) {
+      double normalization = 1.0;
+      if (averageLength > 0) {
+        normalization =
+            1.0 - LENGTH_NORMALIZATION + LENGTH_NORMALIZATION * lengths[place] / averageLength;
+      }
+      return weight * count / normalization;
+    }
+  }
+
+  // A place and its score, used to keep the best results seen so far
+  private static final class Scored {
+    private final int position;
+    private final double score;
+
+    private Scored(final int setPosition, final double setScore) {
+      position = setPosition;
+      score = setScore;
+    }
+  }
+
+  // Orders results from best to worst, breaking ties by list order
+  private static final Comparator<Scored> BEST_FIRST =
+      Comparator.comparingDouble((Scored scored) -> scored.score)
+          .reversed()
+          .thenComparingInt(scored -> scored.position);
+
+  private final List<Place> places;
+  private final Field[] fields;
+
+  RankedIndex(final List<Place> setPlaces) {
+    places = setPlaces;
+    Field description = new Field(DESCRIPTION_WEIGHT, places.size());
+    Field name = new Field(NAME_WEIGHT, places.size());
+    Field npg = new Field(NPG_WEIGHT, places.size());
+    PlaceTokenizer tokenizer = new PlaceTokenizer();
+    for (int position = 0; position < places.size(); position++) {
+      Place place = places.get(position);
+      description.add(tokenizer, position, place.getDescription());
+      name.add(tokenizer, position, place.getName());
+      npg.add(tokenizer, position, place.getNpg());
+    }
+    fields = new Field[] {description, name, npg};
+    for (Field field : fields) {
+      field.finish();
+    }
+  }
+
+  /*
+   * Return up to limit places containing any of the words in the search, best match first.
+   *
+   * Each field's postings for each search word are sorted by position, so we walk through all of
+   * them together, always advancing the ones at the lowest position.
+   * That visits each matching place once with everything needed to score it, without any storage
+   * proportional to the number of places.
+   * The best results so far are kept in a heap with the worst on top, so each place costs at most
+   * a logarithmic heap update rather than requiring a sort of every match.
+   */
+  List<Place> search(final String search, final int limit) {
+    List<String> terms = new ArrayList<>();
+    new PlaceTokenizer()
+        .tokenize(
+            search,
+            (token, length) -> {
+              String term = new String(token, 0, length);
+              if (length > 0 && !terms.contains(term)) {
+                terms.add(term);
+              }
+              return true;
+            });
+
+    // One cursor for each field containing each search word
+    int cursorCount = 0;
+    Postings[] cursorPostings = new Postings[terms.size() * fields.length];
+    Field[] cursorFields = new Field[cursorPostings.length];
+    int[] cursorTerms = new int[cursorPostings.length];
+    int[] cursorIndexes = new int[cursorPostings.length];
+    double[] weights = new double[terms.size()];
+    for (int term = 0; term < terms.size(); term++) {
+      int first = cursorCount;
+      for (Field field : fields) {
+        Postings postings = field.postings.get(terms.get(term));
+        if (postings != null) {
+          cursorPostings[cursorCount] = postings;
+          cursorFields[cursorCount] = field;
+          cursorTerms[cursorCount] = term;
+          cursorCount++;
+        }
+      }
+      weights[term] = inverseFrequency(countPlaces(cursorPostings, first, cursorCount));
+    }
+
+    // No more places can match than the postings hold, and limit may be huge
+    long candidates = 0;
+    for (int i = 0; i < cursorCount; i++) {
+      candidates += cursorPostings[i].size;
+    }
+    PriorityQueue<Scored> best =
+        new PriorityQueue<>((int) Math.min(limit, candidates) + 1, BEST_FIRST.reversed());
+    double[] counts = new double[terms.size()];
+    while (true) {
+      int position = Integer.MAX_VALUE;
+      for (int i = 0; i < cursorCount; i++) {
+        if (cursorIndexes[i] < cursorPostings[i].size) {
+          position = Math.min(position, cursorPostings[i].positions[cursorIndexes[i]]);
+        }
+      }
+      if (position == Integer.MAX_VALUE) {
+        break;
+      }
+
+      Arrays.fill(counts, 0.0);
+      for (int i = 0; i < cursorCount; i++) {
+        Postings postings = cursorPostings[i];
+        if (cursorIndexes[i] < postings.size && postings.positions[cursorIndexes[i]] == position) {
+          counts[cursorTerms[i]] +=
+              cursorFields[i].adjustedCount(postings.counts[cursorIndexes[i]], position);
+          cursorIndexes[i]++;
+        }
+      }
+      double score = 0;
+      for (int term = 0; term < terms.size(); term++) {
+        score += weights[term] * counts[term] / (SATURATION + counts[term]);
+      }
+
+      Scored scored = new Scored(position, score);
+      if (best.size() < limit) {
+        best.add(scored);
+      } else if (BEST_FIRST.compare(scored, best.peek()) < 0) {
+        best.poll();
+        best.add(scored);
+      }
+    }
+
+    List<Scored> sorted = new ArrayList<>(best);
+    sorted.sort(BEST_FIRST);
+    List<Place> toReturn = new ArrayList<>(sorted.size());
+    for (Scored scored : sorted) {
+      toReturn.add(places.get(scored.position));
+    }
+    return toReturn;
+  }
+
+  // Words found in fewer places count for more
+  private double inverseFrequency(final int placeCount) {
+    return Math.log(1.0 + (places.size() - placeCount + 0.5) / (placeCount + 0.5));
+  }
+
+  // Count the places appearing in any of the postings between first and last, by merging them
+  private static int countPlaces(final Postings[] postings, final int first, final int last) {
+    int[] indexes = new int[last - first];
+    int count = 0;
+    while (true) {
+      int position = Integer.MAX_VALUE;
+      for (int i = first; i < last; i++) {
+        if (indexes[i - first] < postings[i].size) {
+          position = Math.min(position, postings[i].positions[indexes[i - first]]);
+        }
+      }
+      if (position == Integer.MAX_VALUE) {
+        return count;
+      }
+      for (int i = first; i < last; i++) {
+        if (indexes[i - first] < postings[i].size
+            && postings[i].positions[indexes[i - first]] == position) {
+          indexes[i - first]++;
+        }
+      }
+      count++;
+    }
+  }
+}
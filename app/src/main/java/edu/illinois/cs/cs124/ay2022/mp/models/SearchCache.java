@@ -0,0 +1,71 @@
+package edu.illinois.cs.cs124.ay2022.mp.models;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/*
+ * Cache of recent search results, used by PlaceIndex.
+ *
+ * Users often repeat searches, for example by deleting characters to go back to an earlier search,
+ * so we remember the results of the most recent searches and return them again without searching.
+ * Once the cache is full, the search that was used least recently is forgotten.
+ *
+ * Each PlaceIndex has its own cache, and an index is created for each new list of places, so
+ * results can never be returned for a different list than the one they came from.
+ */
+final class SearchCache {
+  private final int capacity;
+
+  // Results by search, with the least recently used first
+  private final Map<String, List<Place>> results;
+
+  private long hits = 0;
+  private long misses = 0;
+
+  SearchCache(final int setCapacity) {
+    capacity = setCapacity;
+    results =
+        new LinkedHashMap<String, List<Place>>(capacity + 1, 1.0f, true) {
+          @Override
+          protected boolean removeEldestEntry(final Map.Entry<String, List<Place>> eldest) {
+            return size() > capacity;
+          }
+        };
+  }
+
+  /*
+   * Return the cached results for a key, or perform the search and cache its results.
+   * Callers receive their own copy of the results, so they can modify it without affecting later
+   * searches.
+   */
+  List<Place> get(final String key, final Supplier<List<Place>> search) {
+    List<Place> cached;
+    synchronized (this) {
+      cached = results.get(key);
+      if (cached != null) {
+        hits++;
+      } else {
+        misses++;
+      }
+    }
+    if (cached == null) {
+      // Search without holding the lock, so slow searches don't block other threads
+      cached = search.get();
+      synchronized (this) {
+        results.put(key, cached);
+      }
+    }
+    return new ArrayList<>(cached);
+  }
+
+  synchronized long getHits() {
+    return hits;
+  }
+
+  synchronized long getMisses() {
+    return misses;
+  }
+}
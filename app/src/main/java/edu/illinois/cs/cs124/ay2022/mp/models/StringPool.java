@@ -0,0 +1,164 @@
+package edu.illinois.cs.cs124.ay2022.mp.models;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/*
+ * Pool of strings used to store only one copy of strings that many places share.
+ *
+ * Places often have the same name, since one person can add many places, and there are only a few
+ * npg values.
+ * Each place read from places.csv or from JSON normally gets its own copy of those strings, so a
+ * list of places can hold many identical copies.
+ * Passing each string through intern returns the copy already in the pool when there is one,
+ * and the new copy can then be discarded.
+ * Strings should be interned once, when they first arrive, rather than every time a place is
+ * created, since places decoded only to be sent and discarded gain nothing from sharing.
+ *
+ * Strings are only held weakly, so the pool never keeps a string alive by itself.
+ * Once every place using a string has been removed, the string can be garbage collected and it
+ * disappears from the pool.
+ *
+ * The pool is split into stripes chosen by each string's hash, each with its own lock, so threads
+ * interning different strings at once, like the workers loading places.csv, rarely wait for each
+ * other.
+ *
+ * Should only be used for fields with few distinct values, since looking up each string costs a
+ * hash of it, and pooling strings that are rarely repeated saves nothing.
+ */
+public final class StringPool {
+  // Approximate bytes used by a String apart from its characters: two object headers and fields
+  private static final int STRING_OVERHEAD = 40;
+
+  // Largest character stored in one byte by compact strings
+  private static final char MAX_COMPACT_CHAR = 0xff;
+
+  // Number of stripes, which must be a power of two
+  private static final int STRIPE_COUNT = 16;
+
+  /*
+   * A weak reference to a pooled string, counting how many times intern has returned it.
+   * Every use after the first is a copy that was discarded in favor of the pooled string.
+   */
+  private static final class Pooled extends WeakReference<String> {
+    private final long size;
+    private long uses = 1;
+
+    private Pooled(final String value) {
+      super(value);
+      size = size(value);
+    }
+  }
+
+  /*
+   * One part of the pool, holding the strings whose hashes select it.
+   * Each string maps to a weak reference to itself.
+   * WeakHashMap only holds its keys weakly, but the values are held strongly, so the values must
+   * also be weak to avoid keeping the keys alive.
+   */
+  private static final class Stripe {
+    private final Map<String, Pooled> strings = new WeakHashMap<>();
+    private long lookups = 0;
+    private long hits = 0;
+  }
+
+  private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+
+  public StringPool() {
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /*
+   * Return the pooled copy of a string, adding it to the pool if there isn't one.
+   * Returns null for null.
+   */
+  public String intern(final String value) {
+    if (value == null) {
+      return null;
+    }
+    int hash = value.hashCode();
+    // Only the low bits select a stripe, so mix in the high bits the same way HashMap does
+    Stripe stripe = stripes[(hash ^ (hash >>> (Integer.SIZE / 2))) & (STRIPE_COUNT - 1)];
+    synchronized (stripe) {
+      stripe.lookups++;
+      Pooled reference = stripe.strings.get(value);
+      if (reference != null) {
+        String pooled = reference.get();
+        if (pooled != null) {
+          stripe.hits++;
+          reference.uses++;
+          return pooled;
+        }
+      }
+      stripe.strings.put(value, new Pooled(value));
+      return value;
+    }
+  }
+
+  // Number of strings in the pool, not counting strings that have been collected
+  public int size() {
+    int toReturn = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        toReturn += stripe.strings.size();
+      }
+    }
+    return toReturn;
+  }
+
+  // Number of strings passed to intern
+  public long getLookups() {
+    long toReturn = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        toReturn += stripe.lookups;
+      }
+    }
+    return toReturn;
+  }
+
+  // Number of strings passed to intern that were replaced by a pooled copy
+  public long getHits() {
+    long toReturn = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        toReturn += stripe.hits;
+      }
+    }
+    return toReturn;
+  }
+
+  /*
+   * Approximate bytes saved by the strings the pool holds now.
+   * Each string that is still in use saves a copy for every time intern returned it after the
+   * first.
+   * Strings that have been collected no longer count, so this falls as places are removed, although
+   * a string still counts every copy it replaced for as long as any place uses it.
+   */
+  public long getSavedBytes() {
+    long toReturn = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        for (Pooled reference : stripe.strings.values()) {
+          if (reference.get() != null) {
+            toReturn += (reference.uses - 1) * reference.size;
+          }
+        }
+      }
+    }
+    return toReturn;
+  }
+
+  // Approximate bytes used by a string, assuming compact strings
+  private static long size(final String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) > MAX_COMPACT_CHAR) {
+        return STRING_OVERHEAD + (long) value.length() * Character.BYTES;
+      }
+    }
+    return STRING_OVERHEAD + value.length();
+  }
+}
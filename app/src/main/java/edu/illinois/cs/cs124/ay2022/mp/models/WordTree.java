@@ -0,0 +1,138 @@
+package edu.illinois.cs.cs124.ay2022.mp.models;
+
+import java.util.Arrays;
+
+/*
+ * BK-tree over the words in a PlaceIndex, used to find the words within a number of edits of a
+ * search term without comparing it against every word.
+ *
+ * Each node holds one word, and its children are grouped by their edit distance from that word.
+ * Edit distance obeys the triangle inequality, so if the search term is d edits from a node's word,
+ * any word within maxDistance of the search term must be between d - maxDistance and
+ * d + maxDistance edits from the node's word.
+ * We only need to descend into the children in that range, which for small distances is a small
+ * fraction of the tree.
+ */
+final class WordTree {
+  private static final class Node {
+    // Position of the word in the sorted word array
+    private final int word;
+
+    // Children indexed by their distance from this node's word, with null for missing distances
+    private Node[] children = new Node[0];
+
+    private Node(final int setWord) {
+      word = setWord;
+    }
+  }
+
+  private final String[] words;
+  private Node root = null;
+
+  WordTree(final String[] setWords) {
+    words = setWords;
+    int[] previous = new int[0];
+    int[] current = new int[0];
+    for (int i = 0; i < words.length; i++) {
+      // Repeated separators produce empty words, which nobody searches for
+      if (words[i].length() == 0) {
+        continue;
+      }
+      if (root == null) {
+        root = new Node(i);
+        continue;
+      }
+      Node node = root;
+      while (true) {
+        int needed = words[node.word].length() + 1;
+        if (previous.length < needed) {
+          previous = new int[needed];
+          current = new int[needed];
+        }
+        int distance = distance(words[i], words[node.word], previous, current);
+        if (distance >= node.children.length) {
+          node.children = Arrays.copyOf(node.children, distance + 1);
+        }
+        if (node.children[distance] == null) {
+          node.children[distance] = new Node(i);
+          break;
+        }
+        node = node.children[distance];
+      }
+    }
+  }
+
+  /*
+   * Return the positions in the word array of the words within maxDistance edits of the search
+   * term, in no particular order.
+   */
+  int[] find(final String search, final int maxDistance) {
+    if (root == null) {
+      return new int[0];
+    }
+    int[] found = new int[4];
+    int count = 0;
+
+    // Each row needs one more entry than the length of the longest word it is compared against
+    int[] previous = new int[1];
+    int[] current = new int[1];
+    Node[] stack = new Node[16];
+    int size = 0;
+    stack[size++] = root;
+    while (size > 0) {
+      Node node = stack[--size];
+      int needed = words[node.word].length() + 1;
+      if (previous.length < needed) {
+        previous = new int[needed];
+        current = new int[needed];
+      }
+      int distance = distance(search, words[node.word], previous, current);
+      if (distance <= maxDistance) {
+        if (count == found.length) {
+          found = Arrays.copyOf(found, count * 2);
+        }
+        found[count++] = node.word;
+      }
+      int lowest = Math.max(1, distance - maxDistance);
+      int highest = Math.min(node.children.length - 1, distance + maxDistance);
+      for (int i = lowest; i <= highest; i++) {
+        if (node.children[i] == null) {
+          continue;
+        }
+        if (size == stack.length) {
+          stack = Arrays.copyOf(stack, size * 2);
+        }
+        stack[size++] = node.children[i];
+      }
+    }
+    return Arrays.copyOf(found, count);
+  }
+
+  /*
+   * Levenshtein distance between two words, using two rows of the usual dynamic programming table.
+   * Rows are passed in so they can be reused, and must be longer than the second word.
+   */
+  private static int distance(
+      final String first, final String second, final int[] previous, final int[] current) {
+    int[] above = previous;
+    int[] row = current;
+    for (int j = 0; j <= second.length(); j++) {
+      above[j] = j;
+    }
+    for (int i = 1; i <= first.length(); i++) {
+      row[0] = i;
+      char c = first.charAt(i - 1);
+      for (int j = 1; j <= second.length(); j++) {
+        int substitution = above[j - 1];
+        if (c != second.charAt(j - 1)) {
+          substitution++;
+        }
+        row[j] = Math.min(substitution, Math.min(above[j], row[j - 1]) + 1);
+      }
+      int[] swap = above;
+      above = row;
+      row = swap;
+    }
+    return above[second.length()];
+  }
+}
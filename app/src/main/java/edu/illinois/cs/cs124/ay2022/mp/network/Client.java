@@ -6,8 +6,11 @@ import com.android.volley.AuthFailureError;
 import com.android.volley.Cache;
 import com.android.volley.ExecutorDelivery;
 import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
+import com.android.volley.Response;
 import com.android.volley.VolleyLog;
 import com.android.volley.toolbox.BasicNetwork;
 import com.android.volley.toolbox.HurlStack;
@@ -19,14 +22,24 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.illinois.cs.cs124.ay2022.mp.application.FavoritePlacesApplication;
 import edu.illinois.cs.cs124.ay2022.mp.models.Place;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceChanges;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceId;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlacesPage;
 import edu.illinois.cs.cs124.ay2022.mp.models.ResultMightThrow;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -49,36 +62,165 @@ public final class Client {
   private static final ObjectMapper OBJECT_MAPPER =
       new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 
+  // The most recent list of places received from the server, along with its ETag
+  private static final class CachedPlaces {
+    private final String eTag;
+    private final List<Place> places;
+
+    private CachedPlaces(final String setETag, final List<Place> setPlaces) {
+      eTag = setETag;
+      places = setPlaces;
+    }
+  }
+
+  /*
+   * Cached copy of the place list, used to revalidate with the server.
+   * Written from Volley's network threads, so volatile.
+   */
+  private volatile CachedPlaces cachedPlaces = null;
+
+  /*
+   * Request for the list of places, which revalidates our cached copy using its ETag.
+   * If the server responds with 304 Not Modified we reuse the cached list and skip deserialization
+   * entirely.
+   * Otherwise we deserialize the new list here, on the network thread, and cache it along with
+   * its ETag.
+   */
+  private final class PlacesRequest extends Request<List<Place>> {
+    private final Consumer<ResultMightThrow<List<Place>>> callback;
+    private final CachedPlaces revalidating = cachedPlaces;
+
+    PlacesRequest(final Consumer<ResultMightThrow<List<Place>>> setCallback) {
+      super(
+          Request.Method.GET,
+          FavoritePlacesApplication.SERVER_URL + "/places/",
+          error -> setCallback.accept(new ResultMightThrow<>(error)));
+      callback = setCallback;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+      Map<String, String> headers = new HashMap<>();
+      if (revalidating != null && revalidating.eTag != null) {
+        headers.put("If-None-Match", revalidating.eTag);
+      }
+      return headers;
+    }
+
+    @Override
+    protected Response<List<Place>> parseNetworkResponse(final NetworkResponse response) {
+      if (response.statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        if (revalidating == null) {
+          return Response.error(new ParseError(response));
+        }
+        // Hand out a copy so that callers can't modify our cached list
+        return Response.success(new ArrayList<>(revalidating.places), null);
+      }
+      try {
+        /*
+         * Deserialize the response into a List<Place> using Jackson.
+         * The TypeReference<>() {} is a bit of magic required to have Jackson
+         * return a List with the correct type.
+         * We wrap this in a try-catch to handle deserialization errors that may occur.
+         */
+        List<Place> places = OBJECT_MAPPER.readValue(response.data, new TypeReference<>() {});
+        cachedPlaces = new CachedPlaces(response.headers.get("ETag"), places);
+        return Response.success(new ArrayList<>(places), null);
+      } catch (IOException error) {
+        return Response.error(new ParseError(error));
+      }
+    }
+
+    @Override
+    protected void deliverResponse(final List<Place> places) {
+      // Pass the List<Place> to the callback
+      callback.accept(new ResultMightThrow<>(places));
+    }
+  }
+
   /*
    * Retrieve and deserialize a list of places from the backend server.
    * Takes as an argument a callback method to call when the request completes which will be passed
    * the deserialized list of places received from the server, wrapped in a ResultMightThrow
    * to allow us to also report errors.
    * We will discuss callbacks in more detail once you need to augment this code in MP2.
+   *
+   * If the list has not changed since the last call the server tells us so, and the callback
+   * receives our cached copy.
    */
   public void getPlaces(final Consumer<ResultMightThrow<List<Place>>> callback) {
-    /*
-     * Construct the request itself.
-     * We use a StringRequest allowing us to receive a String from the server.
-     * The String will be valid JSON containing a list of place objects which we can deserialize
-     * into instances of our Place model.
-     */
-    StringRequest getPlacesRequest =
+    // Actually queue the request
+    // The callback above will be run once it completes
+    requestQueue.add(new PlacesRequest(callback));
+  }
+
+  /*
+   * Retrieve only the places within a bounding box from the server, such as the area currently
+   * visible on the map.
+   * The callback is passed the places in the same way as getPlaces.
+   */
+  public void getPlacesWithin(
+      final double south,
+      final double west,
+      final double north,
+      final double east,
+      final Consumer<ResultMightThrow<List<Place>>> callback) {
+    StringRequest getPlacesWithinRequest =
         new StringRequest(
             Request.Method.GET,
-            FavoritePlacesApplication.SERVER_URL + "/places/",
+            FavoritePlacesApplication.SERVER_URL
+                + "/places/?bbox="
+                + south
+                + ","
+                + west
+                + ","
+                + north
+                + ","
+                + east,
+            response -> {
+              // This code runs on success
+              try {
+                List<Place> places = OBJECT_MAPPER.readValue(response, new TypeReference<>() {});
+                callback.accept(new ResultMightThrow<>(places));
+              } catch (JsonProcessingException error) {
+                // Pass the Exception to the callback on error
+                callback.accept(new ResultMightThrow<>(error));
+              }
+            },
+            error -> {
+              // This code runs on failure
+              // Pass the Exception to the callback on error
+              callback.accept(new ResultMightThrow<>(error));
+            });
+
+    // Actually queue the request
+    // The callbacks above will be run once it completes
+    requestQueue.add(getPlacesWithinRequest);
+  }
+
+  /*
+   * Retrieve the count places closest to a point from the server, nearest first.
+   * The callback is passed the places in the same way as getPlaces.
+   */
+  public void getNearestPlaces(
+      final double latitude,
+      final double longitude,
+      final int count,
+      final Consumer<ResultMightThrow<List<Place>>> callback) {
+    StringRequest getNearestPlacesRequest =
+        new StringRequest(
+            Request.Method.GET,
+            FavoritePlacesApplication.SERVER_URL
+                + "/places/nearest?lat="
+                + latitude
+                + "&lon="
+                + longitude
+                + "&k="
+                + count,
             response -> {
               // This code runs on success
               try {
-                /*
-                 * Deserialize the String into a List<Restaurant> using Jackson.
-                 * The TypeReference<>() {} is a bit of magic required to have Jackson
-                 * return a List with the correct type.
-                 * We wrap this in a try-catch to handle deserialization errors that may occur.
-                 */
-                Log.i(TAG, response);
                 List<Place> places = OBJECT_MAPPER.readValue(response, new TypeReference<>() {});
-                // Pass the List<Place> to the callback
                 callback.accept(new ResultMightThrow<>(places));
               } catch (JsonProcessingException error) {
                 // Pass the Exception to the callback on error
@@ -93,7 +235,130 @@ public final class Client {
 
     // Actually queue the request
     // The callbacks above will be run once it completes
-    requestQueue.add(getPlacesRequest);
+    requestQueue.add(getNearestPlacesRequest);
+  }
+
+  /*
+   * Retrieve the places that changed on the server since the given version, and merge them into
+   * the list of places that the caller already has.
+   * The callback is passed the new version along with the merged list, which the caller should
+   * hold onto and pass back on its next call.
+   * Use a version of 0 to retrieve the entire list the first time.
+   *
+   * If the server no longer knows what changed since that version it sends the entire list
+   * instead, which replaces the caller's list rather than being merged into it.
+   */
+  public void getPlaceChanges(
+      final long since,
+      final List<Place> places,
+      final Consumer<ResultMightThrow<PlaceChanges>> callback) {
+    StringRequest getPlaceChangesRequest =
+        new StringRequest(
+            Request.Method.GET,
+            FavoritePlacesApplication.SERVER_URL + "/places/?since=" + since,
+            response -> {
+              // This code runs on success
+              try {
+                PlaceChanges changes = OBJECT_MAPPER.readValue(response, PlaceChanges.class);
+                List<Place> merged = changes.getPlaces();
+                if (!changes.isResync()) {
+                  merged = mergePlaceChanges(places, changes.getPlaces());
+                }
+                callback.accept(
+                    new ResultMightThrow<>(
+                        new PlaceChanges(changes.getVersion(), changes.isResync(), merged)));
+              } catch (JsonProcessingException error) {
+                // Pass the Exception to the callback on error
+                callback.accept(new ResultMightThrow<>(error));
+              }
+            },
+            error -> {
+              // This code runs on failure
+              // Pass the Exception to the callback on error
+              callback.accept(new ResultMightThrow<>(error));
+            });
+
+    // Actually queue the request
+    // The callbacks above will be run once it completes
+    requestQueue.add(getPlaceChangesRequest);
+  }
+
+  /*
+   * Merge changed places into a list of places, without modifying either list.
+   * Changed places replace any place with the same ID and move to the end, matching the order the
+   * server uses.
+   * IDs are compared as parsed UUIDs, as the server does, so a place re-posted with its ID in a
+   * different case still replaces the original.
+   */
+  private static List<Place> mergePlaceChanges(
+      final List<Place> places, final List<Place> changed) {
+    Set<UUID> changedIDs = new HashSet<>();
+    for (Place place : changed) {
+      UUID id = PlaceId.parse(place.getId());
+      if (id != null) {
+        changedIDs.add(id);
+      }
+    }
+    List<Place> merged = new ArrayList<>(places.size() + changed.size());
+    for (Place place : places) {
+      // Places whose IDs can't be parsed can't be replaced, so they are kept
+      UUID id = PlaceId.parse(place.getId());
+      if (id == null || !changedIDs.contains(id)) {
+        merged.add(place);
+      }
+    }
+    merged.addAll(changed);
+    return merged;
+  }
+
+  /*
+   * Retrieve the list of places from the server one page at a time.
+   * The callback is called once for each page as soon as it arrives, so the caller can begin using
+   * places before the entire list has loaded.
+   * The last page has a null cursor.
+   * If a request fails the callback receives the error and no further pages are requested.
+   */
+  public void getPlacesPaged(
+      final int limit, final Consumer<ResultMightThrow<PlacesPage>> callback) {
+    getPlacesPage(limit, null, callback);
+  }
+
+  // Request a single page of places, and then the next page once it arrives
+  private void getPlacesPage(
+      final int limit, final String cursor, final Consumer<ResultMightThrow<PlacesPage>> callback) {
+    String url = FavoritePlacesApplication.SERVER_URL + "/places/?limit=" + limit;
+    if (cursor != null) {
+      url += "&cursor=" + cursor;
+    }
+    StringRequest getPlacesPageRequest =
+        new StringRequest(
+            Request.Method.GET,
+            url,
+            response -> {
+              // This code runs on success
+              PlacesPage page;
+              try {
+                page = OBJECT_MAPPER.readValue(response, PlacesPage.class);
+              } catch (JsonProcessingException error) {
+                // Pass the Exception to the callback on error
+                callback.accept(new ResultMightThrow<>(error));
+                return;
+              }
+              // Start retrieving the next page before handing this one to the callback
+              if (page.getCursor() != null) {
+                getPlacesPage(limit, page.getCursor(), callback);
+              }
+              callback.accept(new ResultMightThrow<>(page));
+            },
+            error -> {
+              // This code runs on failure
+              // Pass the Exception to the callback on error
+              callback.accept(new ResultMightThrow<>(error));
+            });
+
+    // Actually queue the request
+    // The callbacks above will be run once it completes
+    requestQueue.add(getPlacesPageRequest);
   }
 
   public void postFavoritePlace(
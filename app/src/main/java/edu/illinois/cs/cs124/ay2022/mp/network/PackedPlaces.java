@@ -0,0 +1,118 @@
+package edu.illinois.cs.cs124.ay2022.mp.network;
+
+import edu.illinois.cs.cs124.ay2022.mp.models.Place;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceColumns;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/*
+ * Places stored in a compact binary file, which loads much faster than places.csv.
+ *
+ * Parsing the CSV means reading every character, splitting out quoted fields, and converting the
+ * coordinates from text, which is most of the time the server spends starting up or resetting.
+ * Instead, the first time the server starts we parse the CSV once and save the places in a format
+ * that needs no parsing at all:
+ *
+ * - a header identifying the format
+ * - the source the places came from, as its length and then its UTF-8 bytes
+ * - the places laid out exactly as PlaceColumns stores them
+ *
+ * The file is mapped into memory rather than read, and the columns are used directly from the
+ * mapping, so opening it only asks the operating system to make its pages available, and they are
+ * read from storage as places are used.
+ * No place is decoded until it is needed, and none are copied into memory as a whole.
+ *
+ * Opening the file checks that every string lies within it, so a damaged file is rejected with an
+ * IOException rather than failing later when a place is decoded.
+ *
+ * The file also records which version of places.csv it was created from, using the hash on the
+ * CSV's first line, so that a changed CSV is parsed again rather than using outdated places.
+ */
+final class PackedPlaces {
+  // First bytes of the file, identifying its format
+  private static final long MAGIC = 0x504c5041434b5632L;
+
+  // Format and length of the source
+  private static final int HEADER_SIZE = Long.BYTES + Integer.BYTES;
+
+  private final String source;
+  private final PlaceColumns columns;
+
+  private PackedPlaces(final String setSource, final PlaceColumns setColumns) {
+    source = setSource;
+    columns = setColumns;
+  }
+
+  /*
+   * Map a packed places file into memory.
+   * Throws IOException if the file can't be read or is not a complete packed places file.
+   */
+  static PackedPlaces open(final File file) throws IOException {
+    ByteBuffer buffer;
+    try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+      FileChannel channel = input.getChannel();
+      // The mapping remains valid after the channel is closed
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.capacity() < HEADER_SIZE || buffer.getLong(0) != MAGIC) {
+      throw new IOException("not a packed places file");
+    }
+    int sourceLength = buffer.getInt(Long.BYTES);
+    if (sourceLength < 0 || sourceLength > buffer.capacity() - HEADER_SIZE) {
+      throw new IOException("packed places file is damaged");
+    }
+    byte[] source = new byte[sourceLength];
+    buffer.position(HEADER_SIZE);
+    buffer.get(source);
+    try {
+      // The columns are the rest of the file, used in place
+      return new PackedPlaces(
+          new String(source, StandardCharsets.UTF_8), PlaceColumns.wrap(buffer.slice()));
+    } catch (IllegalArgumentException e) {
+      throw new IOException("packed places file is damaged", e);
+    }
+  }
+
+  /*
+   * Save places to a packed places file, recording the source they came from.
+   * The file is written under a temporary name and then renamed, so a crash never leaves a partial
+   * file behind.
+   */
+  static void write(final List<Place> places, final String source, final File file)
+      throws IOException {
+    byte[] encodedSource = source.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putLong(MAGIC).putInt(encodedSource.length).flip();
+    ByteBuffer body = new PlaceColumns(places).getBuffer();
+
+    File temporary = new File(file.getPath() + ".new");
+    try (FileOutputStream stream = new FileOutputStream(temporary)) {
+      FileChannel channel = stream.getChannel();
+      for (ByteBuffer part : new ByteBuffer[] {header, ByteBuffer.wrap(encodedSource), body}) {
+        while (part.hasRemaining()) {
+          channel.write(part);
+        }
+      }
+      channel.force(true);
+    }
+    if (!temporary.renameTo(file)) {
+      throw new IOException("could not replace " + file);
+    }
+  }
+
+  // The source recorded when the file was written
+  String getSource() {
+    return source;
+  }
+
+  // Places in the file, read from the mapping as they are used
+  PlaceColumns getColumns() {
+    return columns;
+  }
+}
@@ -0,0 +1,251 @@
+package edu.illinois.cs.cs124.ay2022.mp.network;
+
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import edu.illinois.cs.cs124.ay2022.mp.models.Place;
+import edu.illinois.cs.cs124.ay2022.mp.models.StringPool;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+ * Loads places from a CSV file in the format of places.csv, used by Server.loadPlaces.
+ *
+ * Reading the entire file into a String before parsing it needs memory for the whole file on top
+ * of the places themselves, and one thread does all of the work.
+ * Instead, we read the file in chunks of about CHUNK_SIZE bytes, ending each chunk at the end of a
+ * row so that every chunk can be parsed on its own.
+ * Chunks are parsed in parallel on the common fork-join pool while we read the next ones, and the
+ * places from each chunk are added in the order the chunks were read, so the result is the same
+ * as parsing the file from start to end.
+ * Only a few chunks are read ahead of the oldest one still being parsed, so the memory used for
+ * the file stays the same however large it is.
+ * A file that fits in a single chunk, like ours normally does, is parsed on the calling thread.
+ *
+ * Rows end at a line ending that is not inside a quoted field.
+ * To find them without parsing each row, we track only whether we are inside quotes, following the
+ * same rules as OpenCSV's default parser so that chunks split exactly where it would end a row:
+ *
+ * - lines end with \n, \r, or \r\n
+ * - a backslash escapes a quote or backslash after it on the same line
+ * - two quotes in a row are a quote rather than the end of the field, once a field has started
+ *
+ * Quotes, backslashes, and line endings are never part of a multi-byte UTF-8 character, so we can
+ * look for them in bytes, and each chunk can also be decoded on its own.
+ */
+final class PlaceCsvLoader {
+  // Lines at the start of the file that are not places: the hash and the header
+  private static final int SKIP_LINES = 2;
+
+  // Approximate number of bytes parsed together
+  private static final int CHUNK_SIZE = 1 << 20;
+
+  // Characters that affect where rows end, using OpenCSV's defaults
+  private static final byte QUOTE = '"';
+  private static final byte ESCAPE = '\\';
+  private static final byte SEPARATOR = ',';
+
+  // Most chunks waiting to be added to the results at once
+  private static final int MAX_PENDING_CHUNKS =
+      Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+
+  private final InputStream input;
+
+  // Bytes read from the input that have not been sent to be parsed yet
+  private byte[] buffer;
+  private int length = 0;
+  private boolean ended = false;
+
+  private PlaceCsvLoader(final InputStream setInput, final int chunkSize) {
+    input = setInput;
+    buffer = new byte[chunkSize];
+  }
+
+  // Load places from a CSV file, skipping its hash and header lines
+  static List<Place> load(final InputStream input) throws IOException {
+    return load(input, CHUNK_SIZE);
+  }
+
+  // Load places using chunks of about the given size, which tests use to split small files
+  static List<Place> load(final InputStream input, final int chunkSize) throws IOException {
+    PlaceCsvLoader loader = new PlaceCsvLoader(input, chunkSize);
+    loader.skipLines();
+
+    List<Place> toReturn = new ArrayList<>();
+    Queue<Future<List<Place>>> pending = new ArrayDeque<>();
+    try {
+      while (true) {
+        byte[] chunk = loader.nextChunk();
+        if (chunk == null) {
+          break;
+        }
+        if (pending.isEmpty() && loader.ended && loader.length == 0) {
+          // The last chunk, and nothing else is being parsed, so there's no point in handing it off
+          toReturn.addAll(parse(chunk));
+          break;
+        }
+        pending.add(ForkJoinPool.commonPool().submit(() -> parse(chunk)));
+        if (pending.size() >= MAX_PENDING_CHUNKS) {
+          toReturn.addAll(pending.remove().get());
+        }
+      }
+      while (!pending.isEmpty()) {
+        toReturn.addAll(pending.remove().get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    } finally {
+      for (Future<List<Place>> future : pending) {
+        future.cancel(false);
+      }
+    }
+    return toReturn;
+  }
+
+  // Parse the rows in a chunk, which contains only complete rows
+  private static List<Place> parse(final byte[] chunk) {
+    CSVReader csvReader =
+        new CSVReaderBuilder(new StringReader(new String(chunk, StandardCharsets.UTF_8))).build();
+    // Names and npg values repeat across many rows, so each row uses the pooled copies
+    StringPool shared = Place.getSharedStrings();
+    List<Place> toReturn = new ArrayList<>();
+    for (String[] parts : csvReader) {
+      toReturn.add(
+          new Place(
+              parts[0],
+              shared.intern(parts[1]),
+              Double.parseDouble(parts[2]),
+              Double.parseDouble(parts[3]),
+              shared.intern(parts[5]),
+              parts[4]));
+    }
+    return toReturn;
+  }
+
+  /*
+   * Discard the lines before the first row.
+   * Finding the end of a line ending with \r means reading the byte after it, which is kept in the
+   * buffer if it starts the first row.
+   */
+  private void skipLines() throws IOException {
+    int skipped = 0;
+    int next = input.read();
+    while (skipped < SKIP_LINES && next >= 0) {
+      if (next == '\r' || next == '\n') {
+        skipped++;
+      }
+      int previous = next;
+      next = input.read();
+      if (previous == '\r' && next == '\n') {
+        next = input.read();
+      }
+    }
+    if (next < 0) {
+      ended = true;
+    } else {
+      buffer[length++] = (byte) next;
+    }
+  }
+
+  /*
+   * Return the next chunk of complete rows, or null once the input has been used up.
+   * Reads until the buffer is full, then returns everything up to the last row that ended, keeping
+   * the start of the unfinished row for the next chunk.
+   * If a single row doesn't fit, the buffer grows until it does.
+   */
+  private byte[] nextChunk() throws IOException {
+    while (true) {
+      while (!ended && length < buffer.length) {
+        int read = input.read(buffer, length, buffer.length - length);
+        if (read < 0) {
+          ended = true;
+        } else {
+          length += read;
+        }
+      }
+      if (ended) {
+        if (length == 0) {
+          return null;
+        }
+        return take(length);
+      }
+      int end = lastRowEnd();
+      if (end > 0) {
+        return take(end);
+      }
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    }
+  }
+
+  /*
+   * Position after the last line ending that ends a row, or 0 if no row has ended.
+   * Stops early at a byte whose meaning depends on the next byte, when that hasn't been read yet.
+   *
+   * Like OpenCSV, we also track whether a field has started.
+   * Once it has, two quotes are a quote even outside quotes, and the state of a field continues
+   * from one line to the next while inside quotes.
+   */
+  private int lastRowEnd() {
+    int toReturn = 0;
+    boolean quoted = false;
+    boolean inField = false;
+    for (int i = 0; i < length; i++) {
+      byte c = buffer[i];
+      if ((c == ESCAPE || c == QUOTE || c == '\r') && i + 1 == length) {
+        break;
+      }
+      if (c == ESCAPE) {
+        inField = true;
+        if (buffer[i + 1] == QUOTE || buffer[i + 1] == ESCAPE) {
+          i++;
+        }
+      } else if (c == QUOTE) {
+        if ((quoted || inField) && buffer[i + 1] == QUOTE) {
+          i++;
+        } else {
+          quoted = !quoted;
+        }
+        inField = !inField;
+      } else if (c == '\r' || c == '\n') {
+        if (c == '\r' && buffer[i + 1] == '\n') {
+          i++;
+        }
+        if (!quoted) {
+          toReturn = i + 1;
+          inField = false;
+        }
+      } else if (c == SEPARATOR) {
+        if (!quoted) {
+          inField = false;
+        }
+      } else {
+        inField = true;
+      }
+    }
+    return toReturn;
+  }
+
+  // Remove bytes from the front of the buffer, moving the rest to the start
+  private byte[] take(final int count) {
+    byte[] toReturn = Arrays.copyOf(buffer, count);
+    System.arraycopy(buffer, count, buffer, 0, length - count);
+    length -= count;
+    return toReturn;
+  }
+}
@@ -0,0 +1,281 @@
+package edu.illinois.cs.cs124.ay2022.mp.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Grid index over place locations, used by PlaceStore to find the places within a bounding box.
+ *
+ * The world is divided into square cells, and each cell holds the entries located inside it.
+ * A bounding box query only needs to look at the cells that overlap the box, so the work done is
+ * proportional to the number of places near the box rather than the total number of places.
+ *
+ * Like the rest of the store, cells are only ever appended to, and a replaced entry stays in its
+ * cell until the next compaction rebuilds the grid.
+ * Queries filter entries by the version of the snapshot they are reading, so they can run while a
+ * writer is adding to the grid without taking a lock.
+ *
+ * The grid also answers nearest neighbor queries, by examining rings of cells around the query
+ * point, moving outward until no unexamined cell can contain anything closer than the places
+ * already found.
+ */
+final class PlaceGrid {
+  // Size of each grid cell in degrees of latitude and longitude
+  private static final double CELL_SIZE = 0.01;
+
+  // Number of cells around the world, used to wrap longitudes at the antimeridian
+  private static final int LONGITUDE_CELLS = (int) Math.round(360.0 / CELL_SIZE);
+
+  // Mean radius of the Earth in meters
+  private static final double EARTH_RADIUS = 6371008.8;
+
+  // Append-only list of the entries in a single cell
+  private static final class Cell {
+    // Readers must read size before entries to see every entry up to size
+    private volatile PlaceStore.Entry[] entries = new PlaceStore.Entry[2];
+    private volatile int size = 0;
+
+    // Only called by writers, while holding the store's lock
+    private void add(final PlaceStore.Entry entry) {
+      PlaceStore.Entry[] current = entries;
+      if (size == current.length) {
+        current = Arrays.copyOf(current, current.length * 2);
+      }
+      current[size] = entry;
+      entries = current;
+      size = size + 1;
+    }
+  }
+
+  private final Map<Long, Cell> cells = new ConcurrentHashMap<>();
+
+  private static int cellIndex(final double degrees) {
+    return (int) Math.floor(degrees / CELL_SIZE);
+  }
+
+  private static long cellKey(final int latitudeIndex, final int longitudeIndex) {
+    return ((long) latitudeIndex << Integer.SIZE) | (longitudeIndex & 0xffffffffL);
+  }
+
+  // Wrap a longitude cell index into the range used for longitudes between -180 and 180
+  private static int wrapLongitudeIndex(final int longitudeIndex) {
+    return Math.floorMod(longitudeIndex + LONGITUDE_CELLS / 2, LONGITUDE_CELLS)
+        - LONGITUDE_CELLS / 2;
+  }
+
+  // Great-circle distance in meters between two points, using the haversine formula
+  static double distance(
+      final double latitude1,
+      final double longitude1,
+      final double latitude2,
+      final double longitude2) {
+    double latitudeSin = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+    double longitudeSin = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+    double a =
+        latitudeSin * latitudeSin
+            + Math.cos(Math.toRadians(latitude1))
+                * Math.cos(Math.toRadians(latitude2))
+                * longitudeSin
+                * longitudeSin;
+    return 2 * EARTH_RADIUS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+  }
+
+  // An entry found during a nearest neighbor query along with its distance from the query point
+  private static final class Neighbor {
+    private final PlaceStore.Entry entry;
+    private final double distance;
+
+    private Neighbor(final PlaceStore.Entry setEntry, final double setDistance) {
+      entry = setEntry;
+      distance = setDistance;
+    }
+  }
+
+  // Add an entry to the cell containing its location
+  void add(final PlaceStore.Entry entry) {
+    long key =
+        cellKey(
+            cellIndex(entry.getLatitude()), wrapLongitudeIndex(cellIndex(entry.getLongitude())));
+    cells.computeIfAbsent(key, unused -> new Cell()).add(entry);
+  }
+
+  /*
+   * Find the entries visible at the given version that are located within the bounding box,
+   * including its edges.
+   * Entries are returned in list order.
+   */
+  List<PlaceStore.Entry> within(
+      final double south,
+      final double west,
+      final double north,
+      final double east,
+      final long version) {
+    List<PlaceStore.Entry> toReturn = new ArrayList<>();
+    int southIndex = cellIndex(south);
+    int northIndex = cellIndex(north);
+    int westIndex = cellIndex(west);
+    // A longitude of 180 wraps around into the same cells as -180, which we only check once
+    int eastIndex = Math.min(cellIndex(east), westIndex + LONGITUDE_CELLS - 1);
+
+    // For very large boxes it is cheaper to check every non-empty cell than every cell in the box
+    long boxCells = ((long) northIndex - southIndex + 1) * ((long) eastIndex - westIndex + 1);
+    if (boxCells > cells.size()) {
+      for (Cell cell : cells.values()) {
+        addWithin(cell, south, west, north, east, version, toReturn);
+      }
+    } else {
+      for (int latitudeIndex = southIndex; latitudeIndex <= northIndex; latitudeIndex++) {
+        for (int longitudeIndex = westIndex; longitudeIndex <= eastIndex; longitudeIndex++) {
+          Cell cell = cells.get(cellKey(latitudeIndex, wrapLongitudeIndex(longitudeIndex)));
+          if (cell != null) {
+            addWithin(cell, south, west, north, east, version, toReturn);
+          }
+        }
+      }
+    }
+
+    toReturn.sort(Comparator.comparingLong(PlaceStore.Entry::getSequence));
+    return toReturn;
+  }
+
+  /*
+   * Find the count entries visible at the given version that are closest to a point, by
+   * great-circle distance, ordered from nearest to farthest.
+   * We keep the closest entries seen so far in a heap with the farthest on top, so each candidate
+   * costs at most a logarithmic heap update rather than requiring a sort of every candidate.
+   */
+  List<PlaceStore.Entry> nearest(
+      final double latitude, final double longitude, final int count, final long version) {
+    PriorityQueue<Neighbor> closest =
+        new PriorityQueue<>(
+            count + 1,
+            Comparator.comparingDouble((Neighbor neighbor) -> neighbor.distance).reversed());
+    int latitudeIndex = cellIndex(latitude);
+    int longitudeIndex = cellIndex(longitude);
+
+    long examined = 0;
+    for (int ring = 0; ; ring++) {
+      // Once we have looked at more cells than are occupied, just check every occupied cell
+      if (examined > cells.size()) {
+        closest.clear();
+        for (Cell cell : cells.values()) {
+          addNearest(cell, latitude, longitude, count, version, closest);
+        }
+        break;
+      }
+      for (int i = latitudeIndex - ring; i <= latitudeIndex + ring; i++) {
+        // Interior rows only need the cells at either end of the ring
+        int step = 1;
+        if (i != latitudeIndex - ring && i != latitudeIndex + ring && ring > 0) {
+          step = 2 * ring;
+        }
+        for (int j = longitudeIndex - ring; j <= longitudeIndex + ring; j += step) {
+          Cell cell = cells.get(cellKey(i, wrapLongitudeIndex(j)));
+          if (cell != null) {
+            addNearest(cell, latitude, longitude, count, version, closest);
+          }
+          examined++;
+        }
+      }
+      if (closest.size() == count
+          && closest.peek().distance <= unexaminedDistance(latitude, longitude, ring)) {
+        break;
+      }
+    }
+
+    List<Neighbor> sorted = new ArrayList<>(closest);
+    sorted.sort(Comparator.comparingDouble(neighbor -> neighbor.distance));
+    List<PlaceStore.Entry> toReturn = new ArrayList<>(sorted.size());
+    for (Neighbor neighbor : sorted) {
+      toReturn.add(neighbor.entry);
+    }
+    return toReturn;
+  }
+
+  /*
+   * Lower bound on the distance from a point to anything outside the square of cells that extends
+   * ring cells out from the cell containing it.
+   * North and south this is just the difference in latitude.
+   * East and west we use the distance from the point to the nearest unexamined meridian, which
+   * is smaller than the distance to any point on it.
+   */
+  private static double unexaminedDistance(
+      final double latitude, final double longitude, final int ring) {
+    double bound = Double.POSITIVE_INFINITY;
+
+    double south = (cellIndex(latitude) - ring) * CELL_SIZE;
+    double north = (cellIndex(latitude) + ring + 1) * CELL_SIZE;
+    if (south > -90.0 || north < 90.0) {
+      double latitudeGap = Math.min(latitude - south, north - latitude);
+      bound = Math.min(bound, EARTH_RADIUS * Math.toRadians(latitudeGap));
+    }
+
+    if (2 * ring + 1 < LONGITUDE_CELLS) {
+      double west = (cellIndex(longitude) - ring) * CELL_SIZE;
+      double east = (cellIndex(longitude) + ring + 1) * CELL_SIZE;
+      double longitudeGap = Math.toRadians(Math.min(longitude - west, east - longitude));
+      bound =
+          Math.min(
+              bound,
+              EARTH_RADIUS
+                  * Math.asin(
+                      Math.cos(Math.toRadians(latitude))
+                          * Math.sin(Math.min(longitudeGap, Math.PI / 2))));
+    }
+    return bound;
+  }
+
+  // Offer the visible entries from a cell to the heap of the closest entries found so far
+  private static void addNearest(
+      final Cell cell,
+      final double latitude,
+      final double longitude,
+      final int count,
+      final long version,
+      final PriorityQueue<Neighbor> closest) {
+    int size = cell.size;
+    PlaceStore.Entry[] entries = cell.entries;
+    for (int i = 0; i < size; i++) {
+      PlaceStore.Entry entry = entries[i];
+      if (!entry.isVisibleAt(version)) {
+        continue;
+      }
+      double distance = distance(latitude, longitude, entry.getLatitude(), entry.getLongitude());
+      if (closest.size() < count) {
+        closest.add(new Neighbor(entry, distance));
+      } else if (distance < closest.peek().distance) {
+        closest.poll();
+        closest.add(new Neighbor(entry, distance));
+      }
+    }
+  }
+
+  // Add the entries from a cell that are visible and within the bounding box
+  private static void addWithin(
+      final Cell cell,
+      final double south,
+      final double west,
+      final double north,
+      final double east,
+      final long version,
+      final List<PlaceStore.Entry> found) {
+    int size = cell.size;
+    PlaceStore.Entry[] entries = cell.entries;
+    for (int i = 0; i < size; i++) {
+      PlaceStore.Entry entry = entries[i];
+      if (!entry.isVisibleAt(version)) {
+        continue;
+      }
+      double latitude = entry.getLatitude();
+      double longitude = entry.getLongitude();
+      if (latitude >= south && latitude <= north && longitude >= west && longitude <= east) {
+        found.add(entry);
+      }
+    }
+  }
+}
@@ -0,0 +1,528 @@
+package edu.illinois.cs.cs124.ay2022.mp.network;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.illinois.cs.cs124.ay2022.mp.models.Place;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceId;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/*
+ * Write-ahead log of the places posted to the server, used so that they survive a restart.
+ *
+ * Each place is appended to the end of the log before the server responds to the request that
+ * posted it.
+ * On startup the server loads its places and then replays the log in order, which recreates the
+ * list as it was when the server stopped.
+ *
+ * Each record holds the length of the place's JSON, a CRC32 checksum of it, and the JSON itself.
+ * If the server stops partway through writing a record, the checksum won't match or the record
+ * will be cut short, and recovery discards it along with anything after it.
+ *
+ * Appending to a file only hands the data to the operating system, which might not write it to
+ * storage until later.
+ * Forcing it to storage is much slower than appending, and would limit how many posts the server
+ * could accept each second if every post waited for its own.
+ * Instead, a background thread forces every write made so far at once, a technique known as group
+ * commit.
+ * Writes that arrive while it is forcing are forced together the next time, and a commit window
+ * can be set to make it wait for more writes before each force.
+ * Each post still waits until its record has been forced before the server responds, so a
+ * successful response means the place will survive a crash, but concurrent posts share the cost.
+ * Forcing each write separately is also supported, mainly for comparison.
+ *
+ * Left alone the log would grow forever, and replaying it would make every start slower than the
+ * last.
+ * So the log is split into numbered segment files, and every so often the server saves a snapshot
+ * of its place list and starts a new segment at the same moment.
+ * Every record in the earlier segments is already part of the snapshot, so once the snapshot is
+ * safely on storage they are deleted.
+ * Most places come from places.csv and never change, so a snapshot doesn't hold them.
+ * Instead it records which version of places.csv the list started from, using the hash on its
+ * first line, along with only the places that differ from it.
+ * Startup then loads places.csv as usual, applies the latest snapshot, and only replays the
+ * segments written since, so it only has as much of the log to read as was written between
+ * snapshots.
+ * A snapshot is written to a temporary file and then renamed over the previous one, so a crash
+ * while writing it leaves the previous snapshot and its segments in place.
+ * If a snapshot is damaged later anyway, it is moved aside rather than stopping the server from
+ * starting, and the server starts over from places.csv and whatever segments remain.
+ * The posts only the snapshot held are lost, but the damaged file is kept so they can be recovered
+ * by hand.
+ */
+final class PlaceLog {
+  private static final Logger LOGGER = Logger.getLogger(PlaceLog.class.getName());
+
+  // Bytes before each record's JSON: its length and checksum
+  private static final int HEADER_SIZE = Integer.BYTES * 2;
+
+  private static final ObjectMapper OBJECT_MAPPER =
+      new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  // Commit window that forces each write as it is made, rather than using group commit
+  static final long FORCE_EACH_WRITE = -1;
+
+  // Segment files are named places-<generation>.log
+  private static final String SEGMENT_PREFIX = "places-";
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  // The latest snapshot, and the file a new snapshot is written to before replacing it
+  private static final String SNAPSHOT_FILE = "places.snapshot";
+  private static final String NEW_SNAPSHOT_FILE = "places.snapshot.new";
+
+  // A damaged snapshot is renamed to this followed by the time it was found
+  private static final String DAMAGED_SNAPSHOT_PREFIX = "places.snapshot.damaged-";
+
+  // First bytes of a snapshot file, identifying its format
+  private static final long SNAPSHOT_MAGIC = 0x504c534e41505332L;
+
+  // First bytes of a snapshot from before snapshots recorded their source, which held every place
+  private static final long FULL_SNAPSHOT_MAGIC = 0x504c534e41505331L;
+
+  // Directory holding the segments and snapshot
+  private final File directory;
+
+  // How long to wait for more writes before forcing a group, in milliseconds
+  private final long commitWindow;
+
+  // Segment currently being appended to, opened by recover
+  private FileChannel channel = null;
+  private long generation = 0;
+
+  /*
+   * Total bytes ever written to the log, and how many of those are known to be on storage.
+   * These keep counting up when a new segment is started, so that positions returned by append
+   * are never reused, and start holds the total when the current segment was started.
+   */
+  private long written = 0;
+  private long durable = 0;
+  private long start = 0;
+
+  // Set if forcing the log to storage fails, after which no further writes can succeed
+  private IOException failure = null;
+
+  PlaceLog(final File setDirectory, final long setCommitWindow) throws IOException {
+    directory = setDirectory;
+    commitWindow = setCommitWindow;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("could not create " + directory);
+    }
+    if (commitWindow != FORCE_EACH_WRITE) {
+      Thread flusher = new Thread(this::flush, "PlaceLog flusher");
+      flusher.setDaemon(true);
+      flusher.start();
+    }
+  }
+
+  // Places found by recover
+  static final class Recovered {
+    private final String source;
+    private final List<Place> snapshot;
+    private final List<Place> records;
+    private final int skipped;
+
+    private Recovered(
+        final String setSource,
+        final List<Place> setSnapshot,
+        final List<Place> setRecords,
+        final int setSkipped) {
+      source = setSource;
+      snapshot = setSnapshot;
+      records = setRecords;
+      skipped = setSkipped;
+    }
+
+    /*
+     * Source that the latest snapshot's places are applied over.
+     * null if there is no snapshot, or if it is an older snapshot holding every place.
+     */
+    String getSnapshotSource() {
+      return source;
+    }
+
+    // Places in the latest snapshot, or null if no snapshot has been saved or it was damaged
+    List<Place> getSnapshot() {
+      return snapshot;
+    }
+
+    // Places appended since the latest snapshot, in the order they were appended
+    List<Place> getRecords() {
+      return records;
+    }
+
+    // Number of places left out of the snapshot and records because their IDs aren't UUIDs
+    int getSkipped() {
+      return skipped;
+    }
+  }
+
+  /*
+   * Read the latest snapshot and every complete record written since it.
+   * Anything after the last complete record was left by an interrupted write, and is removed so
+   * that new records are appended after the good ones.
+   * A damaged snapshot is moved aside and every remaining segment is read instead.
+   * Should be called once, before anything is appended.
+   */
+  synchronized Recovered recover() throws IOException {
+    SavedSnapshot snapshot = null;
+    long first = 0;
+    File snapshotFile = new File(directory, SNAPSHOT_FILE);
+    if (snapshotFile.exists()) {
+      try {
+        snapshot = readSnapshot(snapshotFile);
+        first = snapshot.firstGeneration;
+      } catch (IOException e) {
+        File damaged = new File(directory, DAMAGED_SNAPSHOT_PREFIX + System.currentTimeMillis());
+        if (!snapshotFile.renameTo(damaged)) {
+          throw new IOException("could not move aside damaged " + SNAPSHOT_FILE, e);
+        }
+        LOGGER.log(Level.WARNING, "Damaged snapshot moved to " + damaged.getName(), e);
+        snapshot = null;
+      }
+    }
+    // Left by a snapshot that was interrupted before it replaced the previous one
+    deleteFile(new File(directory, NEW_SNAPSHOT_FILE));
+
+    List<Place> records = new ArrayList<>();
+    generation = first;
+    boolean damaged = false;
+    for (long segment : segments()) {
+      // Older segments are covered by the snapshot, and later ones follow a damaged record
+      if (segment < first || damaged) {
+        deleteFile(segmentFile(segment));
+        continue;
+      }
+      generation = segment;
+      try (RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "rw")) {
+        FileChannel segmentChannel = file.getChannel();
+        long end = readRecords(segmentChannel, records);
+        if (end < segmentChannel.size()) {
+          segmentChannel.truncate(end);
+          segmentChannel.force(true);
+          damaged = true;
+        }
+      }
+    }
+
+    channel = openSegment(generation);
+    written = channel.size();
+    durable = written;
+    start = 0;
+    int skipped = removeInvalidIds(records);
+    if (snapshot == null) {
+      return new Recovered(null, null, records, skipped);
+    }
+    skipped += removeInvalidIds(snapshot.places);
+    return new Recovered(snapshot.source, snapshot.places, records, skipped);
+  }
+
+  /*
+   * Append a place to the log, returning the position that must be durable for it to be saved.
+   * Pass the position to awaitDurable before reporting success.
+   */
+  synchronized long append(final Place place) throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+    ByteBuffer record = ByteBuffer.wrap(encode(place));
+    while (record.hasRemaining()) {
+      written += channel.write(record, written - start);
+    }
+    if (commitWindow == FORCE_EACH_WRITE) {
+      channel.force(false);
+      durable = written;
+    } else {
+      notifyAll();
+    }
+    return written;
+  }
+
+  // Wait until the log has been forced to storage up to the given position
+  synchronized void awaitDurable(final long position) throws IOException {
+    boolean interrupted = false;
+    while (durable < position && failure == null) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (durable < position) {
+      throw failure;
+    }
+  }
+
+  /*
+   * Start a new segment, returning its generation.
+   * Call this at the same moment that the places for a snapshot are taken, so that every record in
+   * the earlier segments is part of the snapshot and every later one is not.
+   * Writes waiting to be forced are forced first, so that anyone waiting for them is released.
+   */
+  synchronized long startSegment() throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+    channel.force(false);
+    durable = written;
+    notifyAll();
+    channel.close();
+    generation++;
+    channel = openSegment(generation);
+    start = written;
+    return generation;
+  }
+
+  /*
+   * Save a snapshot, replacing the previous one, and delete the segments that it covers.
+   * The snapshot holds the source that the place list started from and the places that differ from
+   * it, which recovery returns to be applied over the same source.
+   * The generation is the one returned by startSegment when the places were taken.
+   * Appends are not blocked while the snapshot is written, but only one snapshot should be written
+   * at a time.
+   */
+  void saveSnapshot(final String source, final List<Place> places, final long firstGeneration)
+      throws IOException {
+    File newSnapshot = new File(directory, NEW_SNAPSHOT_FILE);
+    try (FileOutputStream file = new FileOutputStream(newSnapshot)) {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file));
+      output.writeLong(SNAPSHOT_MAGIC);
+      output.writeLong(firstGeneration);
+      output.writeUTF(source);
+      output.writeInt(places.size());
+      for (Place place : places) {
+        output.write(encode(place));
+      }
+      output.flush();
+      file.getFD().sync();
+    }
+    // Renaming replaces the previous snapshot in one step, so a crash leaves one or the other
+    if (!newSnapshot.renameTo(new File(directory, SNAPSHOT_FILE))) {
+      throw new IOException("could not replace " + SNAPSHOT_FILE);
+    }
+    for (long segment : segments()) {
+      if (segment < firstGeneration) {
+        deleteFile(segmentFile(segment));
+      }
+    }
+  }
+
+  // Run by the flusher thread, which forces the log to storage for groups of writes
+  private void flush() {
+    try {
+      while (true) {
+        synchronized (this) {
+          while (written == durable) {
+            wait();
+          }
+        }
+        // Let more writes arrive so that they can share the force
+        if (commitWindow > 0) {
+          Thread.sleep(commitWindow);
+        }
+
+        long target;
+        FileChannel forcing;
+        synchronized (this) {
+          target = written;
+          forcing = channel;
+        }
+        // Appends can continue while we force, since FileChannel allows concurrent use
+        try {
+          forcing.force(false);
+        } catch (ClosedChannelException e) {
+          // A new segment was started, which forced this one before closing it
+        }
+        synchronized (this) {
+          durable = Math.max(durable, target);
+          notifyAll();
+        }
+      }
+    } catch (IOException e) {
+      synchronized (this) {
+        failure = e;
+        notifyAll();
+      }
+    } catch (InterruptedException ignored) {
+    }
+  }
+
+  // Contents of a snapshot file
+  private static final class SavedSnapshot {
+    // Generation of the first segment the snapshot doesn't cover
+    private final long firstGeneration;
+    private final String source;
+    private final List<Place> places;
+
+    private SavedSnapshot(
+        final long setFirstGeneration, final String setSource, final List<Place> setPlaces) {
+      firstGeneration = setFirstGeneration;
+      source = setSource;
+      places = setPlaces;
+    }
+  }
+
+  private static SavedSnapshot readSnapshot(final File file) throws IOException {
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      long magic = input.readLong();
+      if (magic != SNAPSHOT_MAGIC && magic != FULL_SNAPSHOT_MAGIC) {
+        throw new IOException(file + " is not a snapshot");
+      }
+      long firstGeneration = input.readLong();
+      // Older snapshots held every place rather than recording a source
+      String source = null;
+      if (magic == SNAPSHOT_MAGIC) {
+        source = input.readUTF();
+      }
+      List<Place> places = new ArrayList<>();
+      int count = input.readInt();
+      for (int i = 0; i < count; i++) {
+        int length = input.readInt();
+        int checksum = input.readInt();
+        if (length < 0 || length > file.length()) {
+          throw new IOException(file + " is damaged");
+        }
+        byte[] body = new byte[length];
+        input.readFully(body);
+        // Snapshots are only renamed into place once complete, so this means it was damaged later
+        if (checksum(body) != checksum) {
+          throw new IOException(file + " is damaged");
+        }
+        places.add(OBJECT_MAPPER.readValue(body, Place.class));
+      }
+      return new SavedSnapshot(firstGeneration, source, places);
+    } catch (EOFException e) {
+      throw new IOException(file + " is damaged", e);
+    }
+  }
+
+  // Read the complete records in a segment, returning the position after the last one
+  private static long readRecords(final FileChannel segment, final List<Place> places)
+      throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    long position = 0;
+    long size = segment.size();
+    while (position + HEADER_SIZE <= size) {
+      header.clear();
+      readFully(segment, header, position);
+      header.flip();
+      int length = header.getInt();
+      int checksum = header.getInt();
+      if (length < 0 || position + HEADER_SIZE + length > size) {
+        break;
+      }
+      ByteBuffer body = ByteBuffer.allocate(length);
+      readFully(segment, body, position + HEADER_SIZE);
+      if (checksum(body.array()) != checksum) {
+        break;
+      }
+      places.add(OBJECT_MAPPER.readValue(body.array(), Place.class));
+      position += HEADER_SIZE + length;
+    }
+    return position;
+  }
+
+  /*
+   * Remove the places whose IDs the store would reject, returning how many were removed.
+   * Logs written before posted IDs were checked can hold places whose IDs aren't UUIDs, and one of
+   * them shouldn't stop the server from starting or discard the valid places around it.
+   */
+  private static int removeInvalidIds(final List<Place> places) {
+    int before = places.size();
+    places.removeIf(
+        place -> {
+          if (PlaceId.parse(place.getId()) != null) {
+            return false;
+          }
+          LOGGER.warning("Skipping logged place with invalid ID " + place.getId());
+          return true;
+        });
+    return before - places.size();
+  }
+
+  private static void readFully(
+      final FileChannel segment, final ByteBuffer buffer, final long position) throws IOException {
+    long offset = position;
+    while (buffer.hasRemaining()) {
+      int read = segment.read(buffer, offset);
+      if (read < 0) {
+        throw new IOException("log ended unexpectedly");
+      }
+      offset += read;
+    }
+  }
+
+  // A place's record, as written to both segments and snapshots
+  private static byte[] encode(final Place place) throws IOException {
+    byte[] body = OBJECT_MAPPER.writeValueAsBytes(place);
+    ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + body.length);
+    record.putInt(body.length).putInt(checksum(body)).put(body);
+    return record.array();
+  }
+
+  private static int checksum(final byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length);
+    return (int) crc.getValue();
+  }
+
+  private File segmentFile(final long segment) {
+    return new File(directory, SEGMENT_PREFIX + segment + SEGMENT_SUFFIX);
+  }
+
+  // Open a segment for appending, creating it if needed
+  private FileChannel openSegment(final long segment) throws IOException {
+    return new RandomAccessFile(segmentFile(segment), "rw").getChannel();
+  }
+
+  // Generations of the segments in the directory, in increasing order
+  private long[] segments() {
+    String[] names = directory.list();
+    if (names == null) {
+      return new long[0];
+    }
+    long[] toReturn = new long[names.length];
+    int count = 0;
+    for (String name : names) {
+      if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+        continue;
+      }
+      try {
+        toReturn[count] =
+            Long.parseLong(
+                name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        count++;
+      } catch (NumberFormatException ignored) {
+      }
+    }
+    toReturn = Arrays.copyOf(toReturn, count);
+    Arrays.sort(toReturn);
+    return toReturn;
+  }
+
+  private static void deleteFile(final File file) throws IOException {
+    if (file.exists() && !file.delete()) {
+      throw new IOException("could not delete " + file);
+    }
+  }
+}
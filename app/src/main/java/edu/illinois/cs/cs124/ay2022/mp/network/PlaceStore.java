@@ -0,0 +1,478 @@
+package edu.illinois.cs.cs124.ay2022.mp.network;
+
+import edu.illinois.cs.cs124.ay2022.mp.models.Place;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceChanges;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceColumns;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Storage for the places held by the API server.
+ *
+ * Places are indexed by ID, so that POST /favoriteplace can find the place it is replacing without
+ * walking the entire list.
+ * IDs are parsed into UUIDs for the index, which are smaller than the strings and faster to hash
+ * and compare, and which treat IDs differing only in case as the same place.
+ * GET /places returns places in the order that they were added, with a replaced place moving to
+ * the end, so we also keep an ordered array of entries alongside the index.
+ *
+ * Readers never take a lock.
+ * Instead, every change produces a new version number, and writers publish an immutable Snapshot
+ * describing that version through a single volatile field.
+ * A replaced entry is not removed from the array, only marked with the version that replaced it,
+ * so a reader holding an older snapshot still sees exactly the places that existed at its version.
+ * Entries past the end of a snapshot are never visible to it, and writers only ever append, so
+ * a reader can never observe a half-applied write.
+ * Once there are more replaced entries than live ones, the writer copies the live entries into a
+ * fresh array; older snapshots keep the old array, which is never modified again.
+ * Writers are serialized using the store's lock, and each write is constant time on average.
+ *
+ * Lookups by ID also go through a snapshot.
+ * The index can be ahead of every snapshot while a write is being applied, so an entry found there
+ * is only used if it is visible at the snapshot's version, and otherwise the snapshot's own entries
+ * are searched.
+ * A reset starts a new index rather than clearing the old one, which older snapshots keep using.
+ *
+ * Entries are also in the order of the version that added them, which allows a client that
+ * already has an older version of the list to retrieve only what changed since then.
+ * After a reset, or once too many changes have been made since a version, clients holding that
+ * version must retrieve the entire list again.
+ *
+ * Every entry also gets a sequence number when it is added, which increases in list order and is
+ * never reused, even across compaction or reset.
+ * These allow a client to page through the list and continue from where it left off while writes
+ * are happening.
+ *
+ * Finally, entries are added to a PlaceGrid as well, which allows finding the places within a
+ * bounding box or the places nearest a point without checking every place.
+ */
+public final class PlaceStore {
+  // Initial capacity of the entry array
+  private static final int INITIAL_CAPACITY = 16;
+
+  /*
+   * Most changes sent to a client retrieving changes since a version.
+   * Past this it is cheaper to send the entire list, which the server keeps already encoded.
+   */
+  private static final int MAX_CHANGES = 1024;
+
+  /*
+   * A place in the store along with the versions during which it is visible.
+   * Places installed from PlaceColumns are kept in the columns rather than as a Place, and a Place
+   * is only decoded when one is needed.
+   */
+  static final class Entry {
+    private final Place place;
+    private final PlaceColumns columns;
+    private final int position;
+    private final long sequence;
+    private final long addedAt;
+
+    // Version at which this entry stopped being visible, written at most once
+    private volatile long replacedAt = Long.MAX_VALUE;
+
+    private Entry(final Place setPlace, final long setSequence, final long setAddedAt) {
+      place = setPlace;
+      columns = null;
+      position = -1;
+      sequence = setSequence;
+      addedAt = setAddedAt;
+    }
+
+    private Entry(
+        final PlaceColumns setColumns,
+        final int setPosition,
+        final long setSequence,
+        final long setAddedAt) {
+      place = null;
+      columns = setColumns;
+      position = setPosition;
+      sequence = setSequence;
+      addedAt = setAddedAt;
+    }
+
+    Place getPlace() {
+      if (place == null) {
+        return columns.get(position);
+      }
+      return place;
+    }
+
+    // Coordinates are read straight from the columns, without decoding the rest of the place
+    double getLatitude() {
+      if (place == null) {
+        return columns.getLatitude(position);
+      }
+      return place.getLatitude();
+    }
+
+    double getLongitude() {
+      if (place == null) {
+        return columns.getLongitude(position);
+      }
+      return place.getLongitude();
+    }
+
+    // ID of the place, only used when searching entries rather than the index
+    UUID getId() {
+      if (place == null) {
+        return columns.getUuid(position);
+      }
+      return PlaceId.parse(place.getId());
+    }
+
+    long getSequence() {
+      return sequence;
+    }
+
+    boolean isVisibleAt(final long version) {
+      return addedAt <= version && replacedAt > version;
+    }
+  }
+
+  /*
+   * Immutable view of the store at a single version.
+   * Safe to share between threads and to hold onto while writes continue.
+   */
+  public static final class Snapshot {
+    private final long version;
+    private final Entry[] entries;
+    private final int count;
+    private final int size;
+    private final PlaceGrid grid;
+    private final Map<UUID, Entry> index;
+
+    // Every change after this version can be retrieved using changesSince
+    private final long changesStart;
+
+    private Snapshot(
+        final long setVersion,
+        final Entry[] setEntries,
+        final int setCount,
+        final int setSize,
+        final PlaceGrid setGrid,
+        final Map<UUID, Entry> setIndex,
+        final long setChangesStart) {
+      version = setVersion;
+      entries = setEntries;
+      count = setCount;
+      size = setSize;
+      grid = setGrid;
+      index = setIndex;
+      changesStart = setChangesStart;
+    }
+
+    public long getVersion() {
+      return version;
+    }
+
+    // Number of places visible at this version
+    public int size() {
+      return size;
+    }
+
+    // The place with an ID at this version, or null if there is no place with that ID
+    public Place get(final String id) {
+      UUID key = PlaceId.parse(id);
+      if (key == null) {
+        return null;
+      }
+      // IDs are never removed from an index, so if it doesn't have one this version can't either
+      Entry entry = index.get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (entry.isVisibleAt(version)) {
+        return entry.getPlace();
+      }
+      // Added after this version, so search for the entry that was current at this version
+      for (int i = count - 1; i >= 0; i--) {
+        if (entries[i].replacedAt > version && key.equals(entries[i].getId())) {
+          return entries[i].getPlace();
+        }
+      }
+      return null;
+    }
+
+    /*
+     * Retrieve the places that changed after the given version, up to this version.
+     * A place that changed more than once is only included once, in the position of its last change.
+     * Returns null if the changes are no longer available, in which case the caller should retrieve
+     * the entire list.
+     */
+    public PlaceChanges changesSince(final long since) {
+      if (since < changesStart || since > version) {
+        return null;
+      }
+      // Entries are in the order they were added, so we can binary search for the first change
+      int low = 0;
+      int high = count;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (entries[middle].addedAt <= since) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      // A place that changed again has a later entry, and its earlier ones are no longer visible
+      List<Place> changed = new ArrayList<>();
+      for (int i = low; i < count; i++) {
+        if (entries[i].replacedAt > version) {
+          changed.add(entries[i].getPlace());
+        }
+      }
+      return new PlaceChanges(version, false, changed);
+    }
+
+    // All places visible at this version, in order
+    public List<Place> getPlaces() {
+      List<Place> toReturn = new ArrayList<>(size);
+      for (int i = 0; i < count; i++) {
+        if (entries[i].replacedAt > version) {
+          toReturn.add(entries[i].getPlace());
+        }
+      }
+      return Collections.unmodifiableList(toReturn);
+    }
+
+    /*
+     * Places visible at this version that are held as a Place rather than in columns, in order.
+     * After a reset from columns these are exactly the places that differ from the columns, since
+     * every place added or replaced since is held as a Place, so installing the same columns and
+     * then putting these places in order recreates this version's list.
+     */
+    public List<Place> getPlacesNotInColumns() {
+      List<Place> toReturn = new ArrayList<>();
+      for (int i = 0; i < count; i++) {
+        if (entries[i].replacedAt > version && entries[i].place != null) {
+          toReturn.add(entries[i].place);
+        }
+      }
+      return Collections.unmodifiableList(toReturn);
+    }
+
+    /*
+     * Add up to limit places visible at this version that come after the given sequence number to
+     * page, in order.
+     * Returns the sequence number to pass to continue with the next page, or -1 if there are no
+     * more places.
+     * A place replaced while paging moves to the end of the list, so it may be returned twice, but
+     * a place that is present the entire time is never skipped.
+     */
+    public long getPage(final long after, final int limit, final List<Place> page) {
+      // Sequence numbers increase along the array, so we can binary search for our starting point
+      int low = 0;
+      int high = count;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (entries[middle].sequence <= after) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      int added = 0;
+      for (int i = low; i < count; i++) {
+        if (entries[i].replacedAt <= version) {
+          continue;
+        }
+        if (added == limit) {
+          return entries[i - 1].sequence;
+        }
+        page.add(entries[i].getPlace());
+        added++;
+      }
+      return -1;
+    }
+
+    // All places visible at this version within the bounding box, including its edges, in order
+    public List<Place> getPlacesWithin(
+        final double south, final double west, final double north, final double east) {
+      List<Place> toReturn = new ArrayList<>();
+      for (Entry entry : grid.within(south, west, north, east, version)) {
+        toReturn.add(entry.getPlace());
+      }
+      return Collections.unmodifiableList(toReturn);
+    }
+
+    // The places visible at this version closest to a point, from nearest to farthest
+    public List<Place> getNearestPlaces(
+        final double latitude, final double longitude, final int limit) {
+      List<Place> toReturn = new ArrayList<>(limit);
+      for (Entry entry : grid.nearest(latitude, longitude, limit, version)) {
+        toReturn.add(entry.getPlace());
+      }
+      return Collections.unmodifiableList(toReturn);
+    }
+  }
+
+  // Current entry for each place ID, only modified by writers and replaced by each reset
+  private Map<UUID, Entry> index = new ConcurrentHashMap<>();
+
+  // Writer state, only accessed while holding the lock
+  private Entry[] entries = new Entry[INITIAL_CAPACITY];
+  private int count = 0;
+  private long nextSequence = 0;
+  private PlaceGrid grid = new PlaceGrid();
+
+  // Latest published snapshot, read without locking
+  private volatile Snapshot current;
+
+  // Every change after this version can be retrieved, only accessed while holding the lock
+  private long changesStart;
+
+  public PlaceStore() {
+    this(0);
+  }
+
+  /*
+   * Create an empty store whose versions start after the given version.
+   * Starting somewhere other than zero allows callers to make sure that versions from an earlier
+   * store, such as one from before the server restarted, are not mistaken for versions of this one.
+   */
+  public PlaceStore(final long initialVersion) {
+    changesStart = initialVersion;
+    current = new Snapshot(initialVersion, entries, 0, 0, grid, index, changesStart);
+  }
+
+  public PlaceStore(final List<Place> initial) {
+    this(0);
+    reset(initial);
+  }
+
+  // Retrieve the latest snapshot, which never blocks
+  public Snapshot snapshot() {
+    return current;
+  }
+
+  // Retrieve the latest version of a place by ID, or null if there is no place with that ID
+  public Place get(final String id) {
+    return current.get(id);
+  }
+
+  public int size() {
+    return current.size();
+  }
+
+  /*
+   * Add a new place, or replace the existing place with the same ID.
+   * Throws IllegalArgumentException if the place's ID is not a UUID.
+   */
+  public synchronized void put(final Place place) {
+    long version = current.getVersion() + 1;
+    UUID id = key(place);
+    replace(id, version);
+    append(new Entry(place, nextSequence++, version), id);
+    if (count - index.size() > index.size()) {
+      compact();
+    }
+    changesStart = Math.max(changesStart, version - MAX_CHANGES);
+    publish(version);
+  }
+
+  /*
+   * Retrieve the places that changed after the given version, up to the current version.
+   * Returns null if the changes are no longer available.
+   */
+  public PlaceChanges changesSince(final long since) {
+    return current.changesSince(since);
+  }
+
+  // Replace all places in the store
+  public synchronized void reset(final List<Place> places) {
+    long version = startReset(places.size());
+    for (Place place : places) {
+      UUID id = key(place);
+      replace(id, version);
+      append(new Entry(place, nextSequence++, version), id);
+    }
+    finishReset(version);
+  }
+
+  /*
+   * Replace all places in the store with places kept in columns.
+   * The places stay in the columns, which take far less memory than a Place for each.
+   */
+  public synchronized void reset(final PlaceColumns places) {
+    long version = startReset(places.size());
+    for (int position = 0; position < places.size(); position++) {
+      UUID id = places.getUuid(position);
+      replace(id, version);
+      append(new Entry(places, position, nextSequence++, version), id);
+    }
+    finishReset(version);
+  }
+
+  // Discard every entry before a reset, returning the version of the reset
+  private long startReset(final int size) {
+    // Older snapshots still use the previous index, so it is replaced rather than cleared
+    index = new ConcurrentHashMap<>();
+    entries = new Entry[Math.max(INITIAL_CAPACITY, size)];
+    grid = new PlaceGrid();
+    count = 0;
+    return current.getVersion() + 1;
+  }
+
+  // Publish the places added by a reset, which clients can't retrieve only the changes across
+  private void finishReset(final long version) {
+    compact();
+    changesStart = version;
+    publish(version);
+  }
+
+  // Parse the ID of a place, which must be a UUID
+  private static UUID key(final Place place) {
+    UUID toReturn = PlaceId.parse(place.getId());
+    if (toReturn == null) {
+      throw new IllegalArgumentException("invalid ID " + place.getId());
+    }
+    return toReturn;
+  }
+
+  // Mark the current entry with an ID as replaced, if there is one
+  private void replace(final UUID id, final long version) {
+    Entry previous = index.get(id);
+    if (previous != null) {
+      previous.replacedAt = version;
+    }
+  }
+
+  private void append(final Entry entry, final UUID id) {
+    if (count == entries.length) {
+      entries = Arrays.copyOf(entries, entries.length * 2);
+    }
+    entries[count++] = entry;
+    index.put(id, entry);
+    grid.add(entry);
+  }
+
+  /*
+   * Copy the live entries into a fresh array and rebuild the grid from them, leaving the old array
+   * and grid to existing snapshots.
+   */
+  private void compact() {
+    Entry[] compacted = new Entry[Math.max(INITIAL_CAPACITY, index.size() * 2)];
+    PlaceGrid rebuilt = new PlaceGrid();
+    int next = 0;
+    for (int i = 0; i < count; i++) {
+      if (entries[i].replacedAt == Long.MAX_VALUE) {
+        compacted[next++] = entries[i];
+        rebuilt.add(entries[i]);
+      }
+    }
+    entries = compacted;
+    grid = rebuilt;
+    count = next;
+  }
+
+  private void publish(final long version) {
+    current = new Snapshot(version, entries, count, index.size(), grid, index, changesStart);
+  }
+}
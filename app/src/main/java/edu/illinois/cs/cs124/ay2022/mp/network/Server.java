@@ -3,17 +3,27 @@ package edu.illinois.cs.cs124.ay2022.mp.network;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.opencsv.CSVReader;
-import com.opencsv.CSVReaderBuilder;
 import edu.illinois.cs.cs124.ay2022.mp.application.FavoritePlacesApplication;
 import edu.illinois.cs.cs124.ay2022.mp.models.Place;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceChanges;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceColumns;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceId;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlacesPage;
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Scanner;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import okhttp3.OkHttpClient;
@@ -23,6 +33,7 @@ import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
 
 /*
  * Favorite Place API server.
@@ -42,33 +53,390 @@ public final class Server extends Dispatcher {
   @SuppressWarnings("unused")
   private static final String TAG = Server.class.getSimpleName();
 
+  private static final Logger LOGGER = Logger.getLogger(Server.class.getName());
+
   // We are using the Jackson JSON serialization library to serialize and deserialize data on the
   // server
   private static final ObjectMapper OBJECT_MAPPER =
       new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 
-  // Stores the List<Place> containing information about all of the favorite places created during
-  // server startup
-  private List<Place> places;
+  // Stores information about all of the favorite places, indexed by ID
+  // Readers work from immutable snapshots, so requests never see a partially-applied change
+  // Versions start from the current time so that clients don't confuse them with versions from a
+  // previous run of the server
+  private final PlaceStore places = new PlaceStore(System.currentTimeMillis());
+
+  // Log of posted places, used to restore them after a restart, or null if they are not saved
+  private final PlaceLog log;
+
+  /*
+   * How long the log waits for more posts before writing a group to storage, in milliseconds.
+   * Posts that arrive while a group is being written are already grouped together, and waiting
+   * longer only helped with many more concurrent posts than this server sees.
+   */
+  private static final long LOG_COMMIT_WINDOW = 0;
+
+  // Held while logging and storing places, so the log is replayed in the order places were stored
+  private final Object writeLock = new Object();
+
+  // A logged place that isn't stored yet, along with the log position that must be durable first
+  private static final class PendingPlace {
+    private final long position;
+    private final Place place;
+
+    private PendingPlace(final long setPosition, final Place setPlace) {
+      position = setPosition;
+      place = setPlace;
+    }
+  }
+
+  /*
+   * Places that have been logged but are not known to be on storage yet, in the order they were
+   * logged.
+   * A place is only stored, and visible to clients, once its record is durable, so nobody can see
+   * a post that might be lost in a crash.
+   * Places are stored in log order by whichever post finds them durable first, so the store always
+   * matches what replaying the log would produce.
+   * Only used while holding writeLock.
+   */
+  private final Queue<PendingPlace> pendingPlaces = new ArrayDeque<>();
+
+  // Store the pending places logged at or before a durable position, in the order they were logged
+  private void storeDurablePlaces(final long durablePosition) {
+    while (!pendingPlaces.isEmpty() && pendingPlaces.peek().position <= durablePosition) {
+      places.put(pendingPlaces.remove().place);
+    }
+  }
+
+  /*
+   * How often to save a snapshot of the place list, in seconds, if it has changed.
+   * Startup only replays the posts made since the latest snapshot, so this bounds how long it
+   * takes.
+   */
+  private static final long SNAPSHOT_INTERVAL = 60;
+
+  // Held while saving a snapshot, so that a reset can't be overwritten by an older snapshot
+  private final Object snapshotLock = new Object();
+
+  // Version of the place list saved by the latest snapshot
+  private long snapshotVersion;
+
+  // Binary copy of places.csv, or null if places are not being saved
+  private final PackedPlaces packedPlaces;
+
+  // File in the data directory holding the binary copy of places.csv
+  private static final String PACKED_PLACES_FILE = "places.packed";
+
+  // Places from places.csv along with the hash from its first line
+  private static final class Baseline {
+    private final String hash;
+    private final PlaceColumns places;
+
+    private Baseline(final String setHash, final PlaceColumns setPlaces) {
+      hash = setHash;
+      places = setPlaces;
+    }
+  }
+
+  /*
+   * Places from places.csv, loaded once and reused by every reset.
+   * They are kept in columns, which the store reads from directly rather than holding a Place for
+   * each, and which are never modified, so the same columns can be installed again and again
+   * without any parsing.
+   */
+  private volatile Baseline baseline = null;
+
+  /*
+   * Return the places from places.csv, loading them only if they have not been loaded already or
+   * places.csv has changed since.
+   * Checking for changes only reads the hash on the first line.
+   */
+  private PlaceColumns baselinePlaces() throws IOException {
+    String hash = placesHash();
+    Baseline cached = baseline;
+    if (cached != null && cached.hash.equals(hash)) {
+      return cached.places;
+    }
+    PlaceColumns loaded;
+    if (packedPlaces != null && packedPlaces.getSource().equals(hash)) {
+      // Used directly from the mapped file, so nothing is decoded until it is needed
+      loaded = packedPlaces.getColumns();
+    } else {
+      loaded = new PlaceColumns(loadPlaces());
+    }
+    cached = new Baseline(hash, loaded);
+    baseline = cached;
+    return cached.places;
+  }
+
+  // UTF-8 encoded JSON for a single version of the place list
+  private static final class EncodedPlaces {
+    private final long version;
+    private final byte[] body;
+
+    private EncodedPlaces(final long setVersion, final byte[] setBody) {
+      version = setVersion;
+      body = setBody;
+    }
+  }
+
+  /*
+   * Encoded GET /places body for the most recent version that was requested.
+   * The place list only changes on POST or reset, but is read far more often than that, so we
+   * serialize each version once, on the first read after it changes, and reuse the bytes for every
+   * read after that.
+   */
+  private volatile EncodedPlaces encodedPlaces = null;
+
+  // Return the encoded body for the given snapshot, serializing it only if it is not cached
+  private byte[] encodePlaces(final PlaceStore.Snapshot snapshot) throws JsonProcessingException {
+    EncodedPlaces cached = encodedPlaces;
+    if (cached != null && cached.version == snapshot.getVersion()) {
+      return cached.body;
+    }
+    // Only one thread serializes at a time, and the others use its result when it finishes
+    synchronized (this) {
+      cached = encodedPlaces;
+      if (cached != null && cached.version == snapshot.getVersion()) {
+        return cached.body;
+      }
+      byte[] body = OBJECT_MAPPER.writeValueAsBytes(snapshot.getPlaces());
+      // Never replace a newer version with an older one
+      if (cached == null || cached.version < snapshot.getVersion()) {
+        encodedPlaces = new EncodedPlaces(snapshot.getVersion(), body);
+      }
+      return body;
+    }
+  }
+
+  /*
+   * Prefix for the ETags that we send with GET /places.
+   * Versions start over whenever the server restarts, so we include a value that changes on every
+   * start to make sure that a client never matches an ETag from a previous run.
+   */
+  private final String eTagPrefix = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+  // Strong ETag identifying a single version of the place list
+  private String placesETag(final long version) {
+    return "\"" + eTagPrefix + "-" + version + "\"";
+  }
+
+  // Check whether an If-None-Match header matches the current ETag
+  private static boolean matchesETag(final String ifNoneMatch, final String eTag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      String trimmed = candidate.trim();
+      // If-None-Match uses weak comparison, so W/ prefixes are ignored
+      if (trimmed.startsWith("W/")) {
+        trimmed = trimmed.substring(2);
+      }
+      if (trimmed.equals("*") || trimmed.equals(eTag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Retrieve a query parameter from the request URL, or null if it is not present
+  private static String queryParameter(final RecordedRequest request, final String name) {
+    if (request.getRequestUrl() == null) {
+      return null;
+    }
+    return request.getRequestUrl().queryParameter(name);
+  }
+
+  /*
+   * Helper method for the GET /places?since= route.
+   * Returns only the places that changed after the given version, or the entire list with resync
+   * set if those changes are no longer available.
+   */
+  private MockResponse getPlaceChanges(final String since) throws JsonProcessingException {
+    long sinceVersion;
+    try {
+      sinceVersion = Long.parseLong(since);
+    } catch (NumberFormatException e) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+
+    Buffer body = new Buffer();
+    PlaceStore.Snapshot snapshot = places.snapshot();
+    PlaceChanges changes = snapshot.changesSince(sinceVersion);
+    if (changes != null) {
+      body.write(OBJECT_MAPPER.writeValueAsBytes(changes));
+    } else {
+      // Reuse the cached encoding of the entire list rather than serializing it again
+      body.writeUtf8("{\"version\":" + snapshot.getVersion() + ",\"resync\":true,\"places\":")
+          .write(encodePlaces(snapshot))
+          .writeUtf8("}");
+    }
+    return new MockResponse()
+        .setResponseCode(HttpURLConnection.HTTP_OK)
+        .setBody(body)
+        .setHeader("Content-Type", "application/json; charset=utf-8");
+  }
+
+  // Number of places returned per page if the client doesn't specify, and the most we allow
+  private static final int DEFAULT_PAGE_SIZE = 256;
+  private static final int MAX_PAGE_SIZE = 4096;
+
+  /*
+   * Helper method for the GET /places?limit=&cursor= route.
+   * Cursors are opaque to clients, but are actually the position in the place list that the
+   * next page starts after, which remains valid as places are added and replaced.
+   */
+  private MockResponse getPlacesPage(final String limit, final String cursor)
+      throws JsonProcessingException {
+    int pageSize = DEFAULT_PAGE_SIZE;
+    long after = -1;
+    try {
+      if (limit != null) {
+        pageSize = Integer.parseInt(limit);
+      }
+      if (cursor != null) {
+        after = Long.parseLong(cursor, Character.MAX_RADIX);
+      }
+    } catch (NumberFormatException e) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+    if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE || after < -1) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+
+    List<Place> page = new ArrayList<>(pageSize);
+    long next = places.snapshot().getPage(after, pageSize, page);
+    String nextCursor = null;
+    if (next >= 0) {
+      nextCursor = Long.toString(next, Character.MAX_RADIX);
+    }
+    return new MockResponse()
+        .setResponseCode(HttpURLConnection.HTTP_OK)
+        .setBody(OBJECT_MAPPER.writeValueAsString(new PlacesPage(page, nextCursor)))
+        .setHeader("Content-Type", "application/json; charset=utf-8");
+  }
+
+  /*
+   * Helper method for the GET /places?bbox=south,west,north,east route.
+   * Returns the places within the bounding box, including its edges, in the same order as the full
+   * list.
+   * Boxes crossing the antimeridian are not supported.
+   */
+  private MockResponse getPlacesWithin(final String bbox) throws JsonProcessingException {
+    String[] parts = bbox.split(",");
+    if (parts.length != 4) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+    double[] bounds = new double[parts.length];
+    try {
+      for (int i = 0; i < parts.length; i++) {
+        bounds[i] = Double.parseDouble(parts[i]);
+      }
+    } catch (NumberFormatException e) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+    double south = bounds[0];
+    double west = bounds[1];
+    double north = bounds[2];
+    double east = bounds[3];
+    // Also rejects NaN, since all comparisons with NaN are false
+    if (!(south >= -90.0 && south <= north && north <= 90.0)
+        || !(west >= -180.0 && west <= east && east <= 180.0)) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+
+    return new MockResponse()
+        .setResponseCode(HttpURLConnection.HTTP_OK)
+        .setBody(
+            OBJECT_MAPPER.writeValueAsString(
+                places.snapshot().getPlacesWithin(south, west, north, east)))
+        .setHeader("Content-Type", "application/json; charset=utf-8");
+  }
+
+  // Largest number of places that may be requested from GET /places/nearest
+  private static final int MAX_NEAREST = 1024;
+
+  /*
+   * Helper method for the GET /places/nearest?lat=&lon=&k= route.
+   * Returns the k places closest to the given point by great-circle distance, nearest first.
+   */
+  private MockResponse getNearestPlaces(final RecordedRequest request)
+      throws JsonProcessingException {
+    String lat = queryParameter(request, "lat");
+    String lon = queryParameter(request, "lon");
+    String k = queryParameter(request, "k");
+    if (lat == null || lon == null || k == null) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+    double latitude;
+    double longitude;
+    int count;
+    try {
+      latitude = Double.parseDouble(lat);
+      longitude = Double.parseDouble(lon);
+      count = Integer.parseInt(k);
+    } catch (NumberFormatException e) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+    // Also rejects NaN, since all comparisons with NaN are false
+    if (!(latitude >= -90.0 && latitude <= 90.0)
+        || !(longitude >= -180.0 && longitude <= 180.0)
+        || count <= 0
+        || count > MAX_NEAREST) {
+      return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+
+    return new MockResponse()
+        .setResponseCode(HttpURLConnection.HTTP_OK)
+        .setBody(
+            OBJECT_MAPPER.writeValueAsString(
+                places.snapshot().getNearestPlaces(latitude, longitude, count)))
+        .setHeader("Content-Type", "application/json; charset=utf-8");
+  }
 
   // Helper method for the GET /places route, called by the dispatch method below
-  private MockResponse getPlaces() throws JsonProcessingException {
+  private MockResponse getPlaces(final RecordedRequest request) throws JsonProcessingException {
+    String bbox = queryParameter(request, "bbox");
+    if (bbox != null) {
+      return getPlacesWithin(bbox);
+    }
+    String since = queryParameter(request, "since");
+    if (since != null) {
+      return getPlaceChanges(since);
+    }
+    String limit = queryParameter(request, "limit");
+    String cursor = queryParameter(request, "cursor");
+    if (limit != null || cursor != null) {
+      return getPlacesPage(limit, cursor);
+    }
+
+    PlaceStore.Snapshot snapshot = places.snapshot();
+    String eTag = placesETag(snapshot.getVersion());
+
+    // If the client already has this version, tell it so rather than sending the list again
+    if (matchesETag(request.getHeader("If-None-Match"), eTag)) {
+      return new MockResponse()
+          .setResponseCode(HttpURLConnection.HTTP_NOT_MODIFIED)
+          .setHeader("ETag", eTag);
+    }
+
     return new MockResponse()
         // Indicate that the request succeeded (HTTP 200 OK)
         .setResponseCode(HttpURLConnection.HTTP_OK)
-        // Load the JSON string with place information into the body of the response
-        // We use Jackson to serialize the List<Place> to a String
-        .setBody(OBJECT_MAPPER.writeValueAsString(places))
+        // Load the JSON with place information into the body of the response
+        // We use Jackson to serialize the List<Place>, but only when it has changed
+        .setBody(new Buffer().write(encodePlaces(snapshot)))
         /*
          * Set the HTTP header that indicates that this is JSON with the utf-8 charset.
          * There may be special characters in our data set, so it's important to mark it as utf-8
          * so it is parsed properly by clients.
          */
-        .setHeader("Content-Type", "application/json; charset=utf-8");
+        .setHeader("Content-Type", "application/json; charset=utf-8")
+        // Allow clients to revalidate their copy of the list using If-None-Match
+        .setHeader("ETag", eTag);
   }
 
-  private MockResponse postFavoritePlace(final RecordedRequest request)
-      throws JsonProcessingException {
+  private MockResponse postFavoritePlace(final RecordedRequest request) throws IOException {
     // On failure, return a 400 Bad Request
     // Deserialize Post body to Place object
     // Check the resulting Place object to make sure it's valid
@@ -80,16 +448,18 @@ public final class Server extends Dispatcher {
     // Otherwise, replace it
     String input = request.getBody().readUtf8();
     System.out.println(input);
+    // Parsed once, since parsing pools the place's strings
+    Place placeA;
     try {
-      OBJECT_MAPPER.readValue(input, Place.class);
+      placeA = OBJECT_MAPPER.readValue(input, Place.class);
     } catch (Exception e) {
       return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
     }
-    Place placeA = OBJECT_MAPPER.readValue(input, Place.class);
     if (placeA.getId() == null || placeA.getName() == null || placeA.getDescription() == null) {
       return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
     }
-    if (placeA.getId().length() != 36) {
+    // IDs must be UUIDs, which is also how the store keeps them
+    if (PlaceId.parse(placeA.getId()) == null) {
       return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
     }
     if (placeA.getLatitude() > 90.0
@@ -103,12 +473,21 @@ public final class Server extends Dispatcher {
         || placeA.getDescription().equals("")) {
       return new MockResponse().setResponseCode(HttpURLConnection.HTTP_BAD_REQUEST);
     }
-    for (int i = 0; i < places.size(); i++) {
-      if (places.get(i).getId().equals(placeA.getId())) {
-        places.remove(i);
+    if (log == null) {
+      places.put(placeA);
+    } else {
+      long position;
+      synchronized (writeLock) {
+        position = log.append(placeA);
+        pendingPlaces.add(new PendingPlace(position, placeA));
+      }
+      // Wait outside the lock, so that other posts can join the same write to storage
+      // If the write fails this throws, and the place is never stored
+      log.awaitDurable(position);
+      synchronized (writeLock) {
+        storeDurablePlaces(position);
       }
     }
-    places.add(placeA);
     return new MockResponse()
         .setResponseCode(HttpURLConnection.HTTP_OK)
         .setHeader("Content-Type", "application/json; charset=utf-8");
@@ -133,7 +512,13 @@ public final class Server extends Dispatcher {
 
       // Normalize the path by removing trailing slashes and replacing multiple repeated slashes
       // with single slashes
-      String path = request.getPath().replaceFirst("/*$", "").replaceAll("/+", "/");
+      // Query parameters are handled by the individual routes, so we remove them here
+      String path =
+          request
+              .getPath()
+              .replaceFirst("\\?.*$", "")
+              .replaceFirst("/*$", "")
+              .replaceAll("/+", "/");
       // Normalize the request method by converting to uppercase
       String method = request.getMethod().toUpperCase();
 
@@ -148,7 +533,9 @@ public final class Server extends Dispatcher {
         return new MockResponse().setResponseCode(HttpURLConnection.HTTP_OK);
       } else if (path.equals("/places") && method.equals("GET")) {
         // Return the JSON list of restaurants for a GET request to the path /restaurants
-        return getPlaces();
+        return getPlaces(request);
+      } else if (path.equals("/places/nearest") && method.equals("GET")) {
+        return getNearestPlaces(request);
       } else if (path.equals("/favoriteplace") && method.equals("POST")) {
         return postFavoritePlace(request);
       }
@@ -170,32 +557,47 @@ public final class Server extends Dispatcher {
   /*
    * Load place information from a CSV file and create a List<Place>.
    * You will need to examine and modify this code for MP1.
+   *
+   * The file is parsed as it is read, in chunks that are parsed in parallel, using PlaceCsvLoader.
    */
-  public static List<Place> loadPlaces() throws JsonProcessingException {
-    // An unfortunate bit of code required to read an entire stream into a `String`
-    String input =
-        new Scanner(Server.class.getResourceAsStream("/places.csv"), "UTF-8")
-            .useDelimiter("\\A")
-            .next();
-
+  public static List<Place> loadPlaces() throws IOException {
     // We skip the first two lines in the CSV
     // The first is a hash for verifying integrity during testing, and the second is the header
-    CSVReader csvReader = new CSVReaderBuilder(new StringReader(input)).withSkipLines(2).build();
-
-    // Load all CSV rows into a list and return
-    List<Place> toReturn = new ArrayList<>();
-    for (String[] parts : csvReader) {
-      System.out.println(parts[2]);
-      toReturn.add(
-          new Place(
-              parts[0],
-              parts[1],
-              Double.parseDouble(parts[2]),
-              Double.parseDouble(parts[3]),
-              parts[5],
-              parts[4]));
-    }
-    return toReturn;
+    try (InputStream input = Server.class.getResourceAsStream("/places.csv")) {
+      return PlaceCsvLoader.load(input);
+    }
+  }
+
+  // First line of places.csv, which holds a hash of its contents
+  private static String placesHash() throws IOException {
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(
+                Server.class.getResourceAsStream("/places.csv"), StandardCharsets.UTF_8))) {
+      return reader.readLine();
+    }
+  }
+
+  /*
+   * Open the binary copy of places.csv, creating it first if it is missing or was created from a
+   * different version of places.csv.
+   * Parsing the CSV is only needed the first time, after which startup and reset read the places
+   * from the binary copy instead.
+   */
+  private static PackedPlaces openPackedPlaces(final File file) throws IOException {
+    String hash = placesHash();
+    if (file.exists()) {
+      try {
+        PackedPlaces packed = PackedPlaces.open(file);
+        if (packed.getSource().equals(hash)) {
+          return packed;
+        }
+      } catch (IOException ignored) {
+        // Damaged, so we replace it below
+      }
+    }
+    PackedPlaces.write(loadPlaces(), hash, file);
+    return PackedPlaces.open(file);
   }
 
   /*
@@ -206,8 +608,17 @@ public final class Server extends Dispatcher {
    * which can cause problems.
    */
   public static void start() {
+    start(null);
+  }
+
+  /*
+   * Start the server, saving posted places to a directory so that they are restored when the
+   * server is started again.
+   * Passing null does not save posted places.
+   */
+  public static void start(final File dataDirectory) {
     if (!isRunning(false)) {
-      new Server();
+      new Server(dataDirectory);
     }
     if (!isRunning(true)) {
       throw new IllegalStateException("Server should be running");
@@ -264,8 +675,61 @@ public final class Server extends Dispatcher {
     }
   }
 
-  private Server() {
-    doReset();
+  private Server(final File dataDirectory) {
+    try {
+      if (dataDirectory == null) {
+        log = null;
+        packedPlaces = null;
+        places.reset(baselinePlaces());
+      } else {
+        log = new PlaceLog(dataDirectory, LOG_COMMIT_WINDOW);
+        packedPlaces = openPackedPlaces(new File(dataDirectory, PACKED_PLACES_FILE));
+        PlaceLog.Recovered recovered = log.recover();
+        if (recovered.getSnapshot() != null && recovered.getSnapshotSource() == null) {
+          // An older snapshot holding every place
+          places.reset(recovered.getSnapshot());
+        } else {
+          /*
+           * The baseline stays in its columns, used from the packed copy, and only the places that
+           * differed from it are stored as objects.
+           * If places.csv has changed since the snapshot, they are applied over the new version,
+           * so posted places are kept while the rest of the list is updated.
+           */
+          places.reset(baselinePlaces());
+          if (recovered.getSnapshot() != null) {
+            for (Place place : recovered.getSnapshot()) {
+              places.put(place);
+            }
+          }
+        }
+        // Replayed posts are not in the snapshot yet, so the first snapshot will include them
+        snapshotVersion = places.snapshot().getVersion();
+        for (Place place : recovered.getRecords()) {
+          places.put(place);
+        }
+        ScheduledExecutorService snapshotter =
+            Executors.newSingleThreadScheduledExecutor(
+                runnable -> {
+                  Thread thread = new Thread(runnable, "Server snapshots");
+                  thread.setDaemon(true);
+                  return thread;
+                });
+        snapshotter.scheduleWithFixedDelay(
+            () -> {
+              try {
+                saveSnapshot();
+              } catch (IOException e) {
+                // The log still has every post, so we can try again next time
+                LOGGER.log(Level.WARNING, "Saving a snapshot failed", e);
+              }
+            },
+            SNAPSHOT_INTERVAL,
+            SNAPSHOT_INTERVAL,
+            TimeUnit.SECONDS);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
 
     Logger.getLogger(MockWebServer.class.getName()).setLevel(Level.OFF);
     try {
@@ -278,10 +742,53 @@ public final class Server extends Dispatcher {
     }
   }
 
+  /*
+   * Save a snapshot of the place list if it has changed since the last one, allowing the log
+   * segments that it covers to be deleted.
+   * The list always starts from the baseline, so the snapshot only holds the places that differ
+   * from it, and a snapshot taken right after a reset holds none.
+   * Posts are only blocked while the snapshot is taken and a new log segment is started, and not
+   * while it is written to storage, since the snapshot doesn't change after it is taken.
+   */
+  private void saveSnapshot() throws IOException {
+    synchronized (snapshotLock) {
+      PlaceStore.Snapshot snapshot;
+      String source;
+      long generation;
+      synchronized (writeLock) {
+        if (pendingPlaces.isEmpty() && places.snapshot().getVersion() == snapshotVersion) {
+          return;
+        }
+        // Starting a segment makes every logged place durable, so they can all be stored first
+        generation = log.startSegment();
+        storeDurablePlaces(Long.MAX_VALUE);
+        snapshot = places.snapshot();
+        source = baseline.hash;
+      }
+      log.saveSnapshot(source, snapshot.getPlacesNotInColumns(), generation);
+      snapshotVersion = snapshot.getVersion();
+    }
+  }
+
+  /*
+   * Return to the places in places.csv, discarding any posted places.
+   * If places are being saved, a snapshot of the reset list replaces the saved places, so the
+   * discarded ones are not restored after a restart.
+   * That snapshot only records which places.csv the list was reset to, so it is cheap to write.
+   */
   private void doReset() {
     try {
-      places = loadPlaces();
-    } catch (JsonProcessingException exception) {
+      synchronized (snapshotLock) {
+        synchronized (writeLock) {
+          // Posts still waiting for storage are discarded along with every other post
+          pendingPlaces.clear();
+          places.reset(baselinePlaces());
+        }
+        if (log != null) {
+          saveSnapshot();
+        }
+      }
+    } catch (IOException exception) {
       throw new IllegalStateException(exception);
     }
   }
@@ -0,0 +1,172 @@
+package edu.illinois.cs.cs124.ay2022.mp;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+import static edu.illinois.cs.cs124.ay2022.mp.Helpers.PLACES_COUNT;
+import static edu.illinois.cs.cs124.ay2022.mp.Helpers.configureLogging;
+import static org.junit.Assert.fail;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import edu.illinois.cs.cs124.ay2022.mp.models.Place;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceChanges;
+import edu.illinois.cs.cs124.ay2022.mp.models.ResultMightThrow;
+import edu.illinois.cs.cs124.ay2022.mp.network.Client;
+import edu.illinois.cs.cs124.ay2022.mp.network.Server;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+/*
+ * Tests for the parts of the API client that go beyond the checkpoints.
+ *
+ * These are not part of any checkpoint, and use the client the same way that the checkpoint
+ * integration tests do.
+ */
+@RunWith(AndroidJUnit4.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+@Config(qualifiers = "w1080dp-h2088dp")
+public final class ClientTest {
+  private static final Client client = Client.start();
+
+  static {
+    configureLogging();
+  }
+
+  @Before
+  public void resetServer() {
+    Server.reset();
+  }
+
+  @After
+  public void checkClient() {
+    assertWithMessage("Client should be connected").that(client.getConnected()).isTrue();
+  }
+
+  private List<Place> clientGetPlaces() throws InterruptedException, ExecutionException {
+    CompletableFuture<ResultMightThrow<List<Place>>> completableFuture = new CompletableFuture<>();
+    client.getPlaces(completableFuture::complete);
+    ResultMightThrow<List<Place>> result = null;
+    try {
+      result = completableFuture.get(1, TimeUnit.SECONDS);
+    } catch (TimeoutException e) {
+      fail("GET request did not complete in 1 second");
+    }
+    assertWithMessage("getPlaces threw an exception").that(result.getException()).isNull();
+    assertWithMessage("Request failed").that(result.getResult()).isNotNull();
+    return result.getResult();
+  }
+
+  private void clientPostPlace(final Place place) throws InterruptedException, ExecutionException {
+    CompletableFuture<ResultMightThrow<Boolean>> completableFuture = new CompletableFuture<>();
+    client.postFavoritePlace(place, completableFuture::complete);
+    ResultMightThrow<Boolean> result = null;
+    try {
+      result = completableFuture.get(1, TimeUnit.SECONDS);
+    } catch (TimeoutException e) {
+      fail("POST request did not complete in 1 second");
+    }
+    assertWithMessage("postFavoritePlace threw an exception").that(result.getException()).isNull();
+    assertWithMessage("Request failed").that(result.getResult()).isTrue();
+  }
+
+  private PlaceChanges clientGetPlaceChanges(final long since, final List<Place> places)
+      throws InterruptedException, ExecutionException {
+    CompletableFuture<ResultMightThrow<PlaceChanges>> completableFuture = new CompletableFuture<>();
+    client.getPlaceChanges(since, places, completableFuture::complete);
+    ResultMightThrow<PlaceChanges> result = null;
+    try {
+      result = completableFuture.get(1, TimeUnit.SECONDS);
+    } catch (TimeoutException e) {
+      fail("GET request did not complete in 1 second");
+    }
+    assertWithMessage("getPlaceChanges threw an exception").that(result.getException()).isNull();
+    assertWithMessage("Request failed").that(result.getResult()).isNotNull();
+    return result.getResult();
+  }
+
+  @Test(timeout = 10000L)
+  public void testPlacesRevalidation() throws InterruptedException, ExecutionException {
+    List<Place> first = clientGetPlaces();
+    assertWithMessage("Wrong initial number of places").that(first).hasSize(PLACES_COUNT);
+
+    // The list hasn't changed, so the server answers 304 and the client reuses its cached places
+    List<Place> second = clientGetPlaces();
+    assertWithMessage("Revalidated list should be a separate copy")
+        .that(second)
+        .isNotSameInstanceAs(first);
+    assertWithMessage("Wrong number of places after revalidation")
+        .that(second)
+        .hasSize(PLACES_COUNT);
+    for (int i = 0; i < PLACES_COUNT; i++) {
+      assertWithMessage("Revalidated place should come from the cache")
+          .that(second.get(i))
+          .isSameInstanceAs(first.get(i));
+    }
+
+    // Changing a returned list must not change what later callers receive
+    second.clear();
+    List<Place> third = clientGetPlaces();
+    assertWithMessage("Cached list should not be changed by callers")
+        .that(third)
+        .hasSize(PLACES_COUNT);
+
+    // Once the list changes the client receives and caches the new list
+    String id = UUID.randomUUID().toString();
+    clientPostPlace(new Place(id, "Client", 40.1, -88.2, null, "Posted by ClientTest"));
+    List<Place> changed = clientGetPlaces();
+    assertWithMessage("Wrong number of places after POST").that(changed).hasSize(PLACES_COUNT + 1);
+    assertWithMessage("Changed list should not come from the cache")
+        .that(changed.get(0))
+        .isNotSameInstanceAs(first.get(0));
+    boolean found = false;
+    for (Place place : changed) {
+      if (place.getId().equals(id)) {
+        found = true;
+      }
+    }
+    assertWithMessage("Changed list should include the new place").that(found).isTrue();
+  }
+
+  @Test(timeout = 10000L)
+  public void testPlaceChangesMergeById() throws InterruptedException, ExecutionException {
+    PlaceChanges initial = clientGetPlaceChanges(0, new ArrayList<>());
+    assertWithMessage("Wrong initial number of places")
+        .that(initial.getPlaces())
+        .hasSize(PLACES_COUNT);
+
+    String id = UUID.randomUUID().toString();
+    clientPostPlace(new Place(id, "Client", 40.1, -88.2, null, "First post"));
+    PlaceChanges first = clientGetPlaceChanges(initial.getVersion(), initial.getPlaces());
+    assertWithMessage("Wrong number of places after first POST")
+        .that(first.getPlaces())
+        .hasSize(PLACES_COUNT + 1);
+
+    // The same ID in uppercase is the same place, so it replaces the first post
+    clientPostPlace(
+        new Place(id.toUpperCase(Locale.ROOT), "Client", 40.1, -88.2, null, "Second post"));
+    PlaceChanges second = clientGetPlaceChanges(first.getVersion(), first.getPlaces());
+    assertWithMessage("Re-posted place should replace the original")
+        .that(second.getPlaces())
+        .hasSize(PLACES_COUNT + 1);
+    int found = 0;
+    for (Place place : second.getPlaces()) {
+      if (place.getId().equalsIgnoreCase(id)) {
+        found++;
+        assertWithMessage("Wrong description for re-posted place")
+            .that(place.getDescription())
+            .isEqualTo("Second post");
+      }
+    }
+    assertWithMessage("Re-posted place should appear once").that(found).isEqualTo(1);
+  }
+}
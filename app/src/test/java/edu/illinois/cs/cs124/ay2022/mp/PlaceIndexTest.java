@@ -0,0 +1,422 @@
+package edu.illinois.cs.cs124.ay2022.mp;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+import static org.junit.Assert.fail;
+
+import edu.illinois.cs.cs124.ay2022.mp.models.NarrowingSearch;
+import edu.illinois.cs.cs124.ay2022.mp.models.Place;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceIndex;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceTokenizer;
+import edu.illinois.cs.cs124.ay2022.mp.network.Server;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+/*
+ * Tests for the search index used by the search bar.
+ *
+ * These are not part of any checkpoint, and compare the index against simple searches that scan
+ * every place.
+ */
+public final class PlaceIndexTest {
+  private static final List<Place> PLACES = loadPlaces();
+
+  private static List<Place> loadPlaces() {
+    try {
+      return Server.loadPlaces();
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // Split a description into lowercase words the same way the index does
+  private static String[] words(final String description) {
+    return description
+        .replace(".", " ")
+        .replace("!", " ")
+        .replace("?", " ")
+        .replace(",", " ")
+        .replace(":", " ")
+        .replace(";", " ")
+        .replace("/", " ")
+        .replace("-", "")
+        .replace("(", "")
+        .replace(")", "")
+        .replace("'", "")
+        .toLowerCase()
+        .split(" ");
+  }
+
+  // The search that Place.search used before the index, kept to check that results are unchanged
+  private static List<Place> referenceSearch(final List<Place> places, final String search) {
+    if (places.size() == 0 || search.length() == 0 || search.equals(" ")) {
+      return places;
+    }
+    List<Place> toReturn = new ArrayList<>();
+    String trimmed = search.trim().toLowerCase();
+    for (Place place : places) {
+      for (String word : words(place.getDescription())) {
+        if (trimmed.equals(word) && !toReturn.contains(place)) {
+          toReturn.add(place);
+        }
+      }
+    }
+    return toReturn;
+  }
+
+  @Test(timeout = 30000L)
+  public void testSearchMatchesReference() {
+    Set<String> searches = new HashSet<>();
+    for (Place place : PLACES) {
+      searches.addAll(Arrays.asList(words(place.getDescription())));
+    }
+    List<String> variants = new ArrayList<>();
+    for (String word : searches) {
+      variants.add(word.toUpperCase());
+      variants.add("  " + word + " ");
+    }
+    searches.addAll(variants);
+    searches.addAll(
+        Arrays.asList("", " ", "  ", "zzz", "thai food", "squirrels.", "-", "don't", "\u00e9"));
+
+    // Search a shuffled subset as well, so results have to follow the order of the list searched
+    List<Place> shuffled = new ArrayList<>(PLACES);
+    Collections.shuffle(shuffled, new Random(124));
+    List<Place> subset = shuffled.subList(0, shuffled.size() / 2);
+    for (List<Place> places : Arrays.asList(PLACES, subset)) {
+      for (String search : searches) {
+        assertWithMessage("Wrong search result for \"" + search + "\"")
+            .that(Place.search(places, search))
+            .containsExactlyElementsIn(referenceSearch(places, search))
+            .inOrder();
+      }
+    }
+  }
+
+  @Test(timeout = 10000L)
+  public void testSearchPrefix() {
+    PlaceIndex index = new PlaceIndex(PLACES);
+    for (String prefix : new String[] {"s", "squir", "SQUIRRELS", "th", " grain ", "zzz", "2"}) {
+      String search = prefix.trim().toLowerCase();
+      List<Place> expected = new ArrayList<>();
+      for (Place place : PLACES) {
+        for (String word : words(place.getDescription())) {
+          if (word.startsWith(search)) {
+            expected.add(place);
+            break;
+          }
+        }
+      }
+      assertWithMessage("Wrong prefix search result for \"" + prefix + "\"")
+          .that(index.searchPrefix(prefix))
+          .containsExactlyElementsIn(expected)
+          .inOrder();
+      assertWithMessage("Place.searchPrefix should match the index")
+          .that(Place.searchPrefix(PLACES, prefix))
+          .containsExactlyElementsIn(expected)
+          .inOrder();
+    }
+    assertWithMessage("Empty prefix should return every place")
+        .that(index.searchPrefix(" "))
+        .isEqualTo(PLACES);
+    assertWithMessage("Searching an empty list should return it")
+        .that(Place.searchPrefix(new ArrayList<>(), "squir"))
+        .isEmpty();
+  }
+
+  // Levenshtein distance, computed with the full table
+  private static int editDistance(final String first, final String second) {
+    int[][] table = new int[first.length() + 1][second.length() + 1];
+    for (int i = 0; i <= first.length(); i++) {
+      for (int j = 0; j <= second.length(); j++) {
+        if (i == 0 || j == 0) {
+          table[i][j] = i + j;
+          continue;
+        }
+        int substitution = table[i - 1][j - 1];
+        if (first.charAt(i - 1) != second.charAt(j - 1)) {
+          substitution++;
+        }
+        table[i][j] = Math.min(substitution, Math.min(table[i - 1][j], table[i][j - 1]) + 1);
+      }
+    }
+    return table[first.length()][second.length()];
+  }
+
+  @Test(timeout = 10000L)
+  public void testSearchFuzzy() {
+    PlaceIndex index = new PlaceIndex(PLACES);
+    for (String search : new String[] {"squirels", "Libary", "thia", "campsu", "zzzzzzzz"}) {
+      for (int maxDistance = 0; maxDistance <= 2; maxDistance++) {
+        List<Place> expected = new ArrayList<>();
+        for (Place place : PLACES) {
+          for (String word : words(place.getDescription())) {
+            if (word.length() > 0 && editDistance(word, search.toLowerCase()) <= maxDistance) {
+              expected.add(place);
+              break;
+            }
+          }
+        }
+        assertWithMessage("Wrong fuzzy search result for \"" + search + "\" within " + maxDistance)
+            .that(index.searchFuzzy(search, maxDistance))
+            .containsExactlyElementsIn(expected)
+            .inOrder();
+      }
+    }
+    assertWithMessage("Misspelled search should find squirrels")
+        .that(Place.searchFuzzy(PLACES, "squirels", 1))
+        .isNotEmpty();
+  }
+
+  @Test(timeout = 10000L)
+  public void testSearchRanked() {
+    PlaceIndex index = new PlaceIndex(PLACES);
+    for (String search : new String[] {"thai food", "Coffee, study!", "campus library quiet"}) {
+      Set<String> terms = new HashSet<>(Arrays.asList(words(search)));
+      List<Place> expected = new ArrayList<>();
+      for (Place place : PLACES) {
+        for (String word : words(place.getDescription() + " " + place.getName())) {
+          if (word.length() > 0 && terms.contains(word)) {
+            expected.add(place);
+            break;
+          }
+        }
+      }
+      List<Place> all = index.searchRanked(search, PLACES.size());
+      assertWithMessage("Ranked search for \"" + search + "\" found the wrong places")
+          .that(all)
+          .containsExactlyElementsIn(expected);
+      assertWithMessage("Huge limits should return every match")
+          .that(index.searchRanked(search, Integer.MAX_VALUE))
+          .isEqualTo(all);
+      for (int limit = 1; limit < all.size(); limit++) {
+        assertWithMessage("Limited ranked search should return the best results")
+            .that(index.searchRanked(search, limit))
+            .isEqualTo(all.subList(0, limit));
+      }
+    }
+
+    List<Place> places = new ArrayList<>();
+    places.add(
+        new Place("1", "Someone", 40.1, -88.2, "a", "Good coffee, and a great place to study"));
+    places.add(new Place("2", "Someone", 40.1, -88.2, "a", "Good coffee"));
+    places.add(new Place("3", "Someone", 40.1, -88.2, "a", "Somewhere else entirely"));
+    places.add(new Place("4", "Someone", 40.1, -88.2, "a", "Study here"));
+    List<Place> results = Place.searchRanked(places, "coffee study", 10);
+    assertWithMessage("Place matching every word should be first")
+        .that(results.get(0))
+        .isEqualTo(places.get(0));
+    assertWithMessage("Places matching no words should not be returned")
+        .that(results)
+        .doesNotContain(places.get(2));
+  }
+
+  // A randomly generated boolean search, along with a check for whether a place matches it
+  private interface RandomSearch {
+    boolean matches(Set<String> words);
+  }
+
+  private static String randomSearch(
+      final Random random,
+      final String[] vocabulary,
+      final int depth,
+      final List<RandomSearch> out) {
+    int choice = random.nextInt(5);
+    if (depth == 0 || choice == 0) {
+      String word = vocabulary[random.nextInt(vocabulary.length)];
+      out.add(words -> words.contains(word.toLowerCase()));
+      return word;
+    }
+    List<RandomSearch> left = new ArrayList<>();
+    String leftSearch = randomSearch(random, vocabulary, depth - 1, left);
+    if (choice == 1) {
+      out.add(words -> !left.get(0).matches(words));
+      return "NOT (" + leftSearch + ")";
+    }
+    List<RandomSearch> right = new ArrayList<>();
+    String rightSearch = randomSearch(random, vocabulary, depth - 1, right);
+    if (choice == 2) {
+      out.add(words -> left.get(0).matches(words) || right.get(0).matches(words));
+      return "(" + leftSearch + " OR " + rightSearch + ")";
+    } else if (choice == 3) {
+      out.add(words -> left.get(0).matches(words) && right.get(0).matches(words));
+      return "(" + leftSearch + " AND " + rightSearch + ")";
+    }
+    out.add(words -> left.get(0).matches(words) && right.get(0).matches(words));
+    return "(" + leftSearch + " " + rightSearch + ")";
+  }
+
+  @Test(timeout = 30000L)
+  public void testSearchBoolean() {
+    // Synthetic places with common and rare words, so some lists are long enough to skip through
+    Random random = new Random(124);
+    String[] vocabulary = {"Coffee", "study", "quiet", "food", "rare", "music", "missing"};
+    double[] frequencies = {0.5, 0.3, 0.9, 0.05, 0.001, 0.2, 0.0};
+    List<Place> places = new ArrayList<>();
+    List<Set<String>> placeWords = new ArrayList<>();
+    for (int i = 0; i < 50000; i++) {
+      StringBuilder description = new StringBuilder("Place");
+      Set<String> words = new HashSet<>();
+      for (int j = 0; j < vocabulary.length; j++) {
+        if (random.nextDouble() < frequencies[j]) {
+          description.append(", ").append(vocabulary[j]);
+          words.add(vocabulary[j].toLowerCase());
+        }
+      }
+      places.add(
+          new Place(Integer.toString(i), "Someone", 40.1, -88.2, "a", description.toString()));
+      placeWords.add(words);
+    }
+    PlaceIndex index = new PlaceIndex(places);
+
+    for (int i = 0; i < 200; i++) {
+      List<RandomSearch> check = new ArrayList<>();
+      String search = randomSearch(random, vocabulary, 4, check);
+      List<Place> expected = new ArrayList<>();
+      for (int j = 0; j < places.size(); j++) {
+        if (check.get(0).matches(placeWords.get(j))) {
+          expected.add(places.get(j));
+        }
+      }
+      assertWithMessage("Wrong boolean search result for \"" + search + "\"")
+          .that(index.searchBoolean(search))
+          .isEqualTo(expected);
+    }
+
+    for (String invalid : new String[] {"coffee AND", "NOT", "(coffee", "coffee)", "OR coffee"}) {
+      try {
+        index.searchBoolean(invalid);
+        fail("Boolean search accepted \"" + invalid + "\"");
+      } catch (IllegalArgumentException ignored) {
+      }
+    }
+    assertWithMessage("Boolean search should work on the real places")
+        .that(Place.searchBoolean(PLACES, "thai AND NOT (xyzzy OR food)"))
+        .hasSize(2);
+    assertWithMessage("Boolean search should split on any whitespace")
+        .that(Place.searchBoolean(PLACES, "thai\tAND\r\nNOT  ( xyzzy OR\tfood )"))
+        .hasSize(2);
+  }
+
+  @Test(timeout = 10000L)
+  public void testSearchCache() {
+    PlaceIndex index = new PlaceIndex(PLACES);
+    List<Place> first = index.search("thai");
+    assertWithMessage("First search should miss").that(index.getCacheMisses()).isEqualTo(1);
+
+    first.clear();
+    assertWithMessage(
+            "Repeated search with different spacing and case should return the same result")
+        .that(index.search(" THAI "))
+        .hasSize(3);
+    assertWithMessage("Repeated search should hit").that(index.getCacheHits()).isEqualTo(1);
+
+    index.searchPrefix("squir");
+    index.searchRanked("thai food", 10);
+    index.searchRanked("thai food", 5);
+    assertWithMessage("Different searches should miss").that(index.getCacheMisses()).isEqualTo(4);
+
+    List<Place> changed = new ArrayList<>(PLACES);
+    changed.add(new Place("extra", "Someone", 40.1, -88.2, "a", "More thai food"));
+    assertWithMessage("Searching a changed list should not return cached results")
+        .that(Place.search(changed, "thai"))
+        .hasSize(4);
+    assertWithMessage("Searching the original list again should not return the changed results")
+        .that(Place.search(PLACES, "thai"))
+        .hasSize(3);
+  }
+
+  @Test(timeout = 10000L)
+  public void testNarrowingSearch() {
+    PlaceIndex index = new PlaceIndex(PLACES);
+    NarrowingSearch narrowing = new NarrowingSearch(index);
+    // Typing, deleting, and retyping should always match a full search
+    String[] typed = {
+      "s", "sq", "squ", "squir", "squirrels", "squirrelsx", "squ", "st", "stu", "", "T", "th"
+    };
+    for (String search : typed) {
+      assertWithMessage("Narrowing search for \"" + search + "\" should match a full search")
+          .that(narrowing.searchPrefix(search))
+          .isEqualTo(index.searchPrefix(search));
+    }
+  }
+
+  // Words found by the tokenizer, copied out of its buffer
+  private static List<String> tokens(final PlaceTokenizer tokenizer, final String description) {
+    List<String> toReturn = new ArrayList<>();
+    tokenizer.tokenize(
+        description,
+        (token, length) -> {
+          toReturn.add(new String(token, 0, length));
+          return true;
+        });
+    return toReturn;
+  }
+
+  // Characters used to build random descriptions, including separators and removed characters
+  private static final String TOKENIZER_ALPHABET =
+      "aZi I.!?,:;/-()' \u00e9\u00c9\u0130\u0131\u00df\u03a3";
+
+  private static void checkTokenizer(final PlaceTokenizer tokenizer, final String description) {
+    assertWithMessage("Tokenizer should match split for \"" + description + "\"")
+        .that(tokens(tokenizer, description))
+        .containsExactlyElementsIn(words(description))
+        .inOrder();
+  }
+
+  @Test(timeout = 10000L)
+  public void testTokenizerMatchesSplit() {
+    String[] descriptions = {
+      "",
+      " ",
+      "word",
+      "Two Words",
+      "repeated  separators",
+      "mixed.,;separators",
+      " leading space",
+      "..leading separators",
+      "trailing separators?!",
+      "-()'",
+      "--",
+      "   ",
+      "a - b",
+      "don't (really) re-use",
+      "Caf\u00e9 \u00c9T\u00c9",
+      "\u0130stanbul IRIS",
+      "Stra\u00dfe \u03a3\u039f\u03a3",
+      "ends with removed -"
+    };
+    Random random = new Random(124);
+    PlaceTokenizer tokenizer = new PlaceTokenizer();
+    Locale defaultLocale = Locale.getDefault();
+    try {
+      // Turkish lowercases I differently, even though it is ASCII
+      for (Locale locale : new Locale[] {Locale.US, new Locale("tr"), Locale.ROOT}) {
+        Locale.setDefault(locale);
+        for (String description : descriptions) {
+          checkTokenizer(tokenizer, description);
+        }
+        for (Place place : PLACES) {
+          checkTokenizer(tokenizer, place.getDescription());
+        }
+        for (int i = 0; i < 1000; i++) {
+          StringBuilder description = new StringBuilder();
+          int length = random.nextInt(16);
+          for (int j = 0; j < length; j++) {
+            description.append(
+                TOKENIZER_ALPHABET.charAt(random.nextInt(TOKENIZER_ALPHABET.length())));
+          }
+          checkTokenizer(tokenizer, description.toString());
+        }
+      }
+    } finally {
+      Locale.setDefault(defaultLocale);
+    }
+  }
+}
@@ -0,0 +1,642 @@
+package edu.illinois.cs.cs124.ay2022.mp;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+import static org.junit.Assert.fail;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.illinois.cs.cs124.ay2022.mp.models.Place;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceChanges;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceColumns;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceId;
+import edu.illinois.cs.cs124.ay2022.mp.models.StringPool;
+import edu.illinois.cs.cs124.ay2022.mp.network.PlaceStore;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+/*
+ * Tests for the place storage used by the API server.
+ *
+ * These are not part of any checkpoint, and exercise the store directly rather than through the
+ * server routes.
+ */
+public final class PlaceStoreTest {
+  // Number of places in the store before the writer starts
+  private static final int INITIAL_COUNT = 64;
+
+  // Number of writes performed by the writer thread
+  private static final int WRITE_COUNT = 20000;
+
+  // Every ADD_EVERY writes adds a new place rather than replacing an existing one
+  private static final int ADD_EVERY = 8;
+
+  private static final int READER_COUNT = 8;
+
+  private static Place makePlace(final int id, final int write) {
+    return new Place(
+        String.format("00000000-0000-0000-0000-%012d", id),
+        "Writer",
+        40.1,
+        -88.2,
+        "a",
+        "Written by write " + write);
+  }
+
+  // Number of places that should be visible after the given number of writes
+  private static int expectedSize(final long writes) {
+    return INITIAL_COUNT + (int) (writes / ADD_EVERY);
+  }
+
+  @Test(timeout = 10000L)
+  public void testUpsertKeepsOrder() {
+    List<Place> initial = new ArrayList<>();
+    for (int i = 0; i < INITIAL_COUNT; i++) {
+      initial.add(makePlace(i, 0));
+    }
+    PlaceStore store = new PlaceStore(initial);
+    PlaceStore.Snapshot before = store.snapshot();
+
+    store.put(makePlace(0, 1));
+    List<Place> after = store.snapshot().getPlaces();
+    assertWithMessage("Replacing a place changed the count").that(after).hasSize(INITIAL_COUNT);
+    assertWithMessage("Replaced place should move to the end")
+        .that(after.get(INITIAL_COUNT - 1).getDescription())
+        .isEqualTo("Written by write 1");
+    assertWithMessage("Old snapshot should not see the replacement")
+        .that(before.getPlaces().get(0).getDescription())
+        .isEqualTo("Written by write 0");
+    assertWithMessage("Lookup by ID should return the replacement")
+        .that(store.get(makePlace(0, 1).getId()).getDescription())
+        .isEqualTo("Written by write 1");
+  }
+
+  @Test(timeout = 10000L)
+  public void testChangesSince() {
+    List<Place> initial = new ArrayList<>();
+    for (int i = 0; i < INITIAL_COUNT; i++) {
+      initial.add(makePlace(i, 0));
+    }
+    PlaceStore store = new PlaceStore(initial);
+    long start = store.snapshot().getVersion();
+
+    store.put(makePlace(1, 1));
+    store.put(makePlace(2, 2));
+    store.put(makePlace(1, 3));
+    PlaceChanges changes = store.changesSince(start);
+    assertWithMessage("Changes should be available").that(changes).isNotNull();
+    assertWithMessage("Wrong version").that(changes.getVersion()).isEqualTo(start + 3);
+    assertWithMessage("Each place should appear once").that(changes.getPlaces()).hasSize(2);
+    assertWithMessage("Last change should be last")
+        .that(changes.getPlaces().get(1).getDescription())
+        .isEqualTo("Written by write 3");
+    assertWithMessage("No changes since the current version")
+        .that(store.changesSince(start + 3).getPlaces())
+        .isEmpty();
+    assertWithMessage("Versions from before a reset need a resync")
+        .that(store.changesSince(start - 1))
+        .isNull();
+
+    for (int write = 4; write <= WRITE_COUNT; write++) {
+      store.put(makePlace(write % INITIAL_COUNT, write));
+    }
+    assertWithMessage("Old changes should have fallen out of the log")
+        .that(store.changesSince(start))
+        .isNull();
+    assertWithMessage("Recent changes should still be available")
+        .that(store.changesSince(start + WRITE_COUNT - 1).getPlaces())
+        .hasSize(1);
+  }
+
+  @Test(timeout = 10000L)
+  public void testPlacesWithin() {
+    List<Place> initial = new ArrayList<>();
+    for (int i = 0; i < INITIAL_COUNT; i++) {
+      initial.add(makePlace(i, 0));
+    }
+    PlaceStore store = new PlaceStore(initial);
+    PlaceStore.Snapshot before = store.snapshot();
+
+    Place moved = new Place(makePlace(0, 1).getId(), "Writer", 40.2, -88.3, "a", "Moved");
+    store.put(moved);
+    assertWithMessage("Moved place should no longer be in its old location")
+        .that(store.snapshot().getPlacesWithin(40.0, -88.25, 40.15, -88.15))
+        .hasSize(INITIAL_COUNT - 1);
+    assertWithMessage("Moved place should be in its new location")
+        .that(store.snapshot().getPlacesWithin(40.19, -88.31, 40.21, -88.29))
+        .containsExactly(moved);
+    assertWithMessage("Old snapshot should still see the place in its old location")
+        .that(before.getPlacesWithin(40.0, -88.25, 40.15, -88.15))
+        .hasSize(INITIAL_COUNT);
+    assertWithMessage("Whole world should contain every place")
+        .that(store.snapshot().getPlacesWithin(-90.0, -180.0, 90.0, 180.0))
+        .isEqualTo(store.snapshot().getPlaces());
+  }
+
+  // IDs of a list of places, used to compare places decoded from columns
+  private static List<String> ids(final List<Place> places) {
+    List<String> toReturn = new ArrayList<>();
+    for (Place place : places) {
+      toReturn.add(place.getId());
+    }
+    return toReturn;
+  }
+
+  @Test(timeout = 10000L)
+  public void testColumnsMatchPlaces() {
+    Random random = new Random(124);
+    List<Place> initial = new ArrayList<>();
+    for (int i = 0; i < INITIAL_COUNT * 16; i++) {
+      String npg = null;
+      if (i % 3 != 0) {
+        npg = "\u00e9" + i;
+      }
+      initial.add(
+          new Place(
+              String.format("00000000-0000-0000-0000-%012d", i),
+              "Name " + i,
+              40.0 + random.nextDouble(),
+              -88.5 + random.nextDouble(),
+              npg,
+              "Description " + i + " \u2615"));
+    }
+    PlaceColumns columns = new PlaceColumns(initial);
+    for (int i = 0; i < initial.size(); i++) {
+      Place expected = initial.get(i);
+      Place decoded = columns.get(i);
+      assertWithMessage("Wrong ID").that(decoded.getId()).isEqualTo(expected.getId());
+      assertWithMessage("Wrong name").that(decoded.getName()).isEqualTo(expected.getName());
+      assertWithMessage("Wrong latitude")
+          .that(decoded.getLatitude())
+          .isEqualTo(expected.getLatitude());
+      assertWithMessage("Wrong longitude")
+          .that(decoded.getLongitude())
+          .isEqualTo(expected.getLongitude());
+      assertWithMessage("Wrong description")
+          .that(decoded.getDescription())
+          .isEqualTo(expected.getDescription());
+      assertWithMessage("Wrong npg").that(decoded.getNpg()).isEqualTo(expected.getNpg());
+    }
+
+    // Columns read back from their buffer, the way the server uses the packed places file
+    PlaceColumns wrapped = PlaceColumns.wrap(columns.getBuffer());
+    assertWithMessage("Wrong number of wrapped places")
+        .that(wrapped.size())
+        .isEqualTo(initial.size());
+    for (int i = 0; i < initial.size(); i++) {
+      assertWithMessage("Wrong wrapped ID").that(wrapped.getId(i)).isEqualTo(columns.getId(i));
+      assertWithMessage("Wrong wrapped npg").that(wrapped.getNpg(i)).isEqualTo(columns.getNpg(i));
+    }
+
+    PlaceStore fromPlaces = new PlaceStore(initial);
+    PlaceStore fromColumns = new PlaceStore();
+    fromColumns.reset(columns);
+    assertWithMessage("Stores should hold the same places")
+        .that(ids(fromColumns.snapshot().getPlaces()))
+        .isEqualTo(ids(fromPlaces.snapshot().getPlaces()));
+    assertWithMessage("Stores should find the same places within a bounding box")
+        .that(ids(fromColumns.snapshot().getPlacesWithin(40.2, -88.3, 40.6, -88.1)))
+        .isEqualTo(ids(fromPlaces.snapshot().getPlacesWithin(40.2, -88.3, 40.6, -88.1)));
+    assertWithMessage("Stores should find the same nearest places")
+        .that(ids(fromColumns.snapshot().getNearestPlaces(40.4, -88.2, 16)))
+        .isEqualTo(ids(fromPlaces.snapshot().getNearestPlaces(40.4, -88.2, 16)));
+
+    Place replacement = makePlace(0, 1);
+    fromColumns.put(replacement);
+    assertWithMessage("Replacing a place from the columns changed the count")
+        .that(fromColumns.size())
+        .isEqualTo(initial.size());
+    assertWithMessage("Lookup by ID should return the replacement")
+        .that(fromColumns.get(replacement.getId()))
+        .isSameInstanceAs(replacement);
+  }
+
+  @Test(timeout = 10000L)
+  public void testChangesFromColumnsCanBeReapplied() {
+    List<Place> initial = new ArrayList<>();
+    for (int i = 0; i < INITIAL_COUNT; i++) {
+      initial.add(makePlace(i, 0));
+    }
+    PlaceColumns columns = new PlaceColumns(initial);
+    PlaceStore store = new PlaceStore();
+    store.reset(columns);
+    assertWithMessage("Places installed from columns should stay in the columns")
+        .that(store.snapshot().getPlacesNotInColumns())
+        .isEmpty();
+
+    // Replace some places from the columns, one of them twice, and add new ones
+    List<Place> changed = new ArrayList<>();
+    changed.add(makePlace(3, 1));
+    changed.add(makePlace(INITIAL_COUNT, 2));
+    changed.add(makePlace(5, 3));
+    changed.add(makePlace(3, 4));
+    for (Place place : changed) {
+      store.put(place);
+    }
+    List<Place> notInColumns = store.snapshot().getPlacesNotInColumns();
+    assertWithMessage("Only the changed places should be held outside the columns")
+        .that(ids(notInColumns))
+        .isEqualTo(ids(changed.subList(1, changed.size())));
+
+    // This is how the server recovers from a snapshot, which only holds the changed places
+    PlaceStore recovered = new PlaceStore();
+    recovered.reset(columns);
+    for (Place place : notInColumns) {
+      recovered.put(place);
+    }
+    assertWithMessage("Reapplying the changes should recreate the list in order")
+        .that(ids(recovered.snapshot().getPlaces()))
+        .isEqualTo(ids(store.snapshot().getPlaces()));
+    assertWithMessage("Unchanged places should still be in the columns after reapplying")
+        .that(recovered.snapshot().getPlacesNotInColumns())
+        .hasSize(notInColumns.size());
+  }
+
+  @Test(timeout = 10000L)
+  public void testIdsAreUuids() {
+    for (int i = 0; i < INITIAL_COUNT; i++) {
+      UUID uuid = UUID.randomUUID();
+      assertWithMessage("Should parse " + uuid)
+          .that(PlaceId.parse(uuid.toString()))
+          .isEqualTo(uuid);
+      assertWithMessage("Should parse uppercase " + uuid)
+          .that(PlaceId.parse(uuid.toString().toUpperCase()))
+          .isEqualTo(uuid);
+    }
+    String[] invalid = {
+      null,
+      "",
+      "meow",
+      "1-2-3-4-5",
+      "36d64c8b-a44b-4909-b5fe-c905f9d2440",
+      "36d64c8b-a44b-4909-b5fe-c905f9d244033",
+      "36d64c8ba-44b-4909-b5fe-c905f9d24403",
+      "36d64c8b-a44b-4909-b5fe+c905f9d24403",
+      "36d64c8g-a44b-4909-b5fe-c905f9d24403",
+      "36d64c8b-a44b-4909-b5fe-c905f9d2440\uff13",
+    };
+    for (String id : invalid) {
+      assertWithMessage("Should not parse " + id).that(PlaceId.parse(id)).isNull();
+    }
+
+    List<Place> initial = new ArrayList<>();
+    for (int i = 0; i < INITIAL_COUNT; i++) {
+      initial.add(makePlace(i, 0));
+    }
+    PlaceStore store = new PlaceStore(initial);
+    Place original = makePlace(INITIAL_COUNT, 1);
+    store.put(original);
+    Place uppercase =
+        new Place(original.getId().toUpperCase(), "Writer", 40.1, -88.2, "a", "Uppercase");
+    store.put(uppercase);
+    assertWithMessage("IDs differing only in case should be the same place")
+        .that(store.size())
+        .isEqualTo(INITIAL_COUNT + 1);
+    assertWithMessage("Lookup should ignore case")
+        .that(store.get(original.getId()))
+        .isSameInstanceAs(uppercase);
+    assertWithMessage("Lookup of an invalid ID should find nothing")
+        .that(store.get("meow"))
+        .isNull();
+    try {
+      store.put(new Place("meow", "Writer", 40.1, -88.2, "a", "Invalid"));
+      fail("Storing a place with an invalid ID should throw");
+    } catch (IllegalArgumentException ignored) {
+    }
+  }
+
+  @Test(timeout = 10000L)
+  public void testSharedStrings() throws Exception {
+    StringPool pool = Place.getSharedStrings();
+    String name = "Shared " + UUID.randomUUID();
+    ObjectMapper mapper = new ObjectMapper();
+    String json =
+        "{\"id\":\""
+            + UUID.randomUUID()
+            + "\",\"name\":\""
+            + name
+            + "\",\"npg\":\"a\",\"description\":\"Parsed\"}";
+    Place first = mapper.readValue(json, Place.class);
+    long hits = pool.getHits();
+    long savedBytes = pool.getSavedBytes();
+    Place second = mapper.readValue(json, Place.class);
+    assertWithMessage("Deserialized places should share their name")
+        .that(second.getName())
+        .isSameInstanceAs(first.getName());
+    assertWithMessage("Deserialized places should share their npg")
+        .that(second.getNpg())
+        .isSameInstanceAs(first.getNpg());
+    assertWithMessage("Pool should count the shared copies")
+        .that(pool.getHits())
+        .isAtLeast(hits + 2);
+    assertWithMessage("Pool should estimate the memory saved")
+        .that(pool.getSavedBytes())
+        .isGreaterThan(savedBytes);
+
+    // Places decoded from columns are only sent and discarded, so they don't use the pool
+    List<Place> stored = new ArrayList<>();
+    for (int i = 0; i < INITIAL_COUNT; i++) {
+      stored.add(
+          new Place(
+              UUID.randomUUID().toString(),
+              new String(name.toCharArray()),
+              40.1,
+              -88.2,
+              "a",
+              "Stored"));
+    }
+    PlaceColumns columns = new PlaceColumns(stored);
+    long lookups = pool.getLookups();
+    for (int i = 0; i < columns.size(); i++) {
+      columns.get(i);
+    }
+    assertWithMessage("Decoding places should not look up their strings")
+        .that(pool.getLookups())
+        .isEqualTo(lookups);
+
+    // Once no place uses a string the pool should let it be collected
+    StringPool unused = new StringPool();
+    for (int i = 0; i < INITIAL_COUNT; i++) {
+      unused.intern("Unused " + i);
+    }
+    for (int i = 0; i < INITIAL_COUNT && unused.size() > 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertWithMessage("Pool should not keep unused strings").that(unused.size()).isEqualTo(0);
+  }
+
+  // Great-circle distance used to check nearest neighbor results
+  private static double distance(final Place first, final Place second) {
+    double latitudeSin = Math.sin(Math.toRadians(second.getLatitude() - first.getLatitude()) / 2);
+    double longitudeSin =
+        Math.sin(Math.toRadians(second.getLongitude() - first.getLongitude()) / 2);
+    return Math.asin(
+        Math.sqrt(
+            latitudeSin * latitudeSin
+                + Math.cos(Math.toRadians(first.getLatitude()))
+                    * Math.cos(Math.toRadians(second.getLatitude()))
+                    * longitudeSin
+                    * longitudeSin));
+  }
+
+  @Test(timeout = 10000L)
+  public void testNearestPlaces() {
+    Random random = new Random(124);
+    List<Place> initial = new ArrayList<>();
+    for (int i = 0; i < 4096; i++) {
+      // Half of the places are clustered around campus, and the rest are spread around the world
+      double latitude = 40.1 + random.nextGaussian() * 0.05;
+      double longitude = -88.2 + random.nextGaussian() * 0.05;
+      if (i % 2 == 0) {
+        latitude = random.nextDouble() * 180.0 - 90.0;
+        longitude = random.nextDouble() * 360.0 - 180.0;
+      }
+      initial.add(new Place(makePlace(i, 0).getId(), "Writer", latitude, longitude, "a", "b"));
+    }
+    PlaceStore store = new PlaceStore(initial);
+
+    double[][] queries = {{40.11, -88.23}, {0.0, 179.999}, {0.0, -180.0}, {89.9, 10.0}, {-45, 90}};
+    for (double[] query : queries) {
+      Place origin = new Place(makePlace(-1, 0).getId(), "Origin", query[0], query[1], "a", "b");
+      List<Place> sorted = new ArrayList<>(initial);
+      sorted.sort(Comparator.comparingDouble(place -> distance(origin, place)));
+      for (int count : new int[] {1, 8, 100}) {
+        assertWithMessage("Wrong nearest places to " + query[0] + ", " + query[1])
+            .that(store.snapshot().getNearestPlaces(query[0], query[1], count))
+            .containsExactlyElementsIn(sorted.subList(0, count))
+            .inOrder();
+      }
+    }
+  }
+
+  @Test(timeout = 30000L)
+  public void testConcurrentReadersSeeConsistentSnapshots() throws Exception {
+    List<Place> initial = new ArrayList<>();
+    for (int i = 0; i < INITIAL_COUNT; i++) {
+      initial.add(makePlace(i, 0));
+    }
+    PlaceStore store = new PlaceStore(initial);
+    long startVersion = store.snapshot().getVersion();
+
+    AtomicBoolean done = new AtomicBoolean(false);
+    ExecutorService executor = Executors.newFixedThreadPool(READER_COUNT + 1);
+    List<Future<Integer>> readers = new ArrayList<>();
+    for (int r = 0; r < READER_COUNT; r++) {
+      readers.add(
+          executor.submit(
+              () -> {
+                int reads = 0;
+                long lastVersion = startVersion;
+                while (!done.get() || reads == 0) {
+                  PlaceStore.Snapshot snapshot = store.snapshot();
+                  List<Place> places = snapshot.getPlaces();
+                  long writes = snapshot.getVersion() - startVersion;
+
+                  assertWithMessage("Versions should never go backwards")
+                      .that(snapshot.getVersion())
+                      .isAtLeast(lastVersion);
+                  assertWithMessage("Snapshot size does not match its places")
+                      .that(places)
+                      .hasSize(snapshot.size());
+                  assertWithMessage("Snapshot saw a partially-applied write")
+                      .that(places.size())
+                      .isEqualTo(expectedSize(writes));
+
+                  Set<String> seen = new HashSet<>();
+                  for (Place place : places) {
+                    assertWithMessage("Snapshot contains a duplicate ID")
+                        .that(seen.add(place.getId()))
+                        .isTrue();
+                  }
+                  lastVersion = snapshot.getVersion();
+                  reads++;
+                }
+                return reads;
+              }));
+    }
+
+    Future<?> writer =
+        executor.submit(
+            () -> {
+              int nextId = INITIAL_COUNT;
+              for (int write = 1; write <= WRITE_COUNT; write++) {
+                if (write % ADD_EVERY == 0) {
+                  store.put(makePlace(nextId++, write));
+                } else {
+                  store.put(makePlace(write % INITIAL_COUNT, write));
+                }
+              }
+              done.set(true);
+            });
+
+    writer.get();
+    for (Future<Integer> reader : readers) {
+      assertWithMessage("Reader did not complete any reads").that(reader.get()).isGreaterThan(0);
+    }
+    executor.shutdown();
+
+    assertWithMessage("Wrong final count")
+        .that(store.snapshot().getPlaces())
+        .hasSize(expectedSize(WRITE_COUNT));
+  }
+
+  // Places the writer adds after each reset, which the next reset removes
+  private static final int RESET_ADD_COUNT = 16;
+
+  @Test(timeout = 30000L)
+  public void testLookupsSeeConsistentSnapshots() throws Exception {
+    List<Place> initial = new ArrayList<>();
+    for (int i = 0; i < INITIAL_COUNT; i++) {
+      initial.add(makePlace(i, 0));
+    }
+    PlaceStore store = new PlaceStore(initial);
+    PlaceStore.Snapshot before = store.snapshot();
+    store.put(makePlace(0, 1));
+    assertWithMessage("Old snapshot should find the place it held")
+        .that(before.get(makePlace(0, 0).getId()).getDescription())
+        .isEqualTo("Written by write 0");
+    assertWithMessage("Old snapshot should not find places added since")
+        .that(before.get(makePlace(INITIAL_COUNT, 0).getId()))
+        .isNull();
+
+    AtomicBoolean done = new AtomicBoolean(false);
+    ExecutorService executor = Executors.newFixedThreadPool(READER_COUNT + 1);
+    List<Future<Integer>> readers = new ArrayList<>();
+    for (int r = 0; r < READER_COUNT; r++) {
+      readers.add(
+          executor.submit(
+              () -> {
+                int reads = 0;
+                while (!done.get() || reads == 0) {
+                  // Every initial place exists at every version, even while a reset is running
+                  for (int i = 0; i < INITIAL_COUNT; i++) {
+                    assertWithMessage("Lookup missed a place during a write")
+                        .that(store.get(makePlace(i, 0).getId()))
+                        .isNotNull();
+                  }
+                  // Lookups should find exactly the places in the snapshot's list
+                  PlaceStore.Snapshot snapshot = store.snapshot();
+                  Map<String, Place> expected = new HashMap<>();
+                  for (Place place : snapshot.getPlaces()) {
+                    expected.put(place.getId(), place);
+                  }
+                  for (int i = 0; i < INITIAL_COUNT + RESET_ADD_COUNT; i++) {
+                    String id = makePlace(i, 0).getId();
+                    assertWithMessage("Lookup disagreed with the snapshot's list")
+                        .that(snapshot.get(id))
+                        .isSameInstanceAs(expected.get(id));
+                  }
+                  reads++;
+                }
+                return reads;
+              }));
+    }
+
+    Future<?> writer =
+        executor.submit(
+            () -> {
+              int write = 1;
+              while (write <= WRITE_COUNT) {
+                store.reset(initial);
+                for (int i = 0; i < RESET_ADD_COUNT; i++) {
+                  store.put(makePlace(INITIAL_COUNT + i, write++));
+                  store.put(makePlace(i, write++));
+                }
+              }
+              done.set(true);
+            });
+
+    writer.get();
+    for (Future<Integer> reader : readers) {
+      assertWithMessage("Reader did not complete any reads").that(reader.get()).isGreaterThan(0);
+    }
+    executor.shutdown();
+  }
+
+  // Places returned on each page when paging through the store
+  private static final int PAGE_SIZE = 5;
+
+  // Places replaced between pages, which with the place added must be fewer than PAGE_SIZE
+  private static final int REPLACE_PER_PAGE = 3;
+
+  // Writes made while paging before the store is reset
+  private static final int RESET_AFTER = 100;
+
+  @Test(timeout = 10000L)
+  public void testPagingContinuesAcrossWrites() {
+    List<Place> initial = new ArrayList<>();
+    for (int i = 0; i < INITIAL_COUNT; i++) {
+      initial.add(makePlace(i, 0));
+    }
+    PlaceStore store = new PlaceStore(initial);
+
+    // Pages exactly filling the list should end on the last full page rather than an empty one
+    int pages = 0;
+    long cursor = -1;
+    do {
+      List<Place> page = new ArrayList<>();
+      cursor = store.snapshot().getPage(cursor, INITIAL_COUNT / 4, page);
+      assertWithMessage("Every page should be full").that(page).hasSize(INITIAL_COUNT / 4);
+      pages++;
+    } while (cursor != -1);
+    assertWithMessage("Wrong number of pages").that(pages).isEqualTo(4);
+
+    /*
+     * Page through the list while other places are added and replaced between pages.
+     * Replaced places move to the end, so fewer are replaced than each page returns, but enough
+     * to compact the store several times, and it is reset with the same places once along the way.
+     * None of the initial places is ever removed, so every one of them must be returned.
+     */
+    Random random = new Random(124);
+    Set<String> seen = new HashSet<>();
+    int write = 1;
+    int added = 0;
+    boolean wasReset = false;
+    cursor = -1;
+    do {
+      List<Place> page = new ArrayList<>();
+      long next = store.snapshot().getPage(cursor, PAGE_SIZE, page);
+      if (next != -1) {
+        assertWithMessage("Only the last page may be short").that(page).hasSize(PAGE_SIZE);
+      }
+      for (Place place : page) {
+        seen.add(place.getId());
+      }
+      cursor = next;
+
+      for (int i = 0; i < REPLACE_PER_PAGE; i++) {
+        store.put(makePlace(random.nextInt(INITIAL_COUNT + added), write++));
+      }
+      store.put(makePlace(INITIAL_COUNT + added++, write++));
+      if (!wasReset && write > RESET_AFTER) {
+        store.reset(initial);
+        added = 0;
+        wasReset = true;
+      }
+    } while (cursor != -1 && write < WRITE_COUNT);
+    assertWithMessage("Paging did not reach the last page").that(cursor).isEqualTo(-1L);
+    assertWithMessage("Store should have been reset while paging").that(wasReset).isTrue();
+    for (Place place : initial) {
+      assertWithMessage("Place present the entire time was skipped")
+          .that(seen)
+          .contains(place.getId());
+    }
+
+    List<Place> last = new ArrayList<>();
+    assertWithMessage("Paging past the end should return no more places")
+        .that(store.snapshot().getPage(Long.MAX_VALUE - 1, PAGE_SIZE, last))
+        .isEqualTo(-1L);
+    assertWithMessage("Paging past the end should return no places").that(last).isEmpty();
+  }
+}
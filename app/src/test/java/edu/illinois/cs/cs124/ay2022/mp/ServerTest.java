@@ -0,0 +1,319 @@
+package edu.illinois.cs.cs124.ay2022.mp;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.illinois.cs.cs124.ay2022.mp.application.FavoritePlacesApplication;
+import edu.illinois.cs.cs124.ay2022.mp.models.Place;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlacesPage;
+import edu.illinois.cs.cs124.ay2022.mp.network.Server;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Tests for the API server routes that go beyond the checkpoints.
+ *
+ * These are not part of any checkpoint, and make requests to the server the same way that the
+ * checkpoint unit tests do.
+ */
+public final class ServerTest {
+  private static final OkHttpClient HTTP_CLIENT = new OkHttpClient();
+
+  private static final ObjectMapper MAPPER =
+      new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  private static final int PLACES_COUNT = loadPlacesCount();
+
+  private static int loadPlacesCount() {
+    try {
+      return Server.loadPlaces().size();
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static {
+    Server.start();
+  }
+
+  @Before
+  public void resetServer() {
+    Server.reset();
+  }
+
+  // GET a path on the server, revalidating using an ETag if one is given
+  private static Response get(final String path, final String ifNoneMatch) throws IOException {
+    Request.Builder request =
+        new Request.Builder().url(FavoritePlacesApplication.SERVER_URL + path);
+    if (ifNoneMatch != null) {
+      request.header("If-None-Match", ifNoneMatch);
+    }
+    return HTTP_CLIENT.newCall(request.build()).execute();
+  }
+
+  private static List<Place> getPlaces(final Response response) throws IOException {
+    return MAPPER.readValue(response.body().string(), new TypeReference<>() {});
+  }
+
+  private static void postPlace(final String id, final String description) throws IOException {
+    String json =
+        MAPPER.writeValueAsString(new Place(id, "Server", 40.1, -88.2, null, description));
+    Request request =
+        new Request.Builder()
+            .url(FavoritePlacesApplication.SERVER_URL + "/favoriteplace/")
+            .post(RequestBody.create(json, MediaType.parse("application/json; charset=utf-8")))
+            .build();
+    try (Response response = HTTP_CLIENT.newCall(request).execute()) {
+      assertWithMessage("POST should have succeeded")
+          .that(response.code())
+          .isEqualTo(HttpURLConnection.HTTP_OK);
+    }
+  }
+
+  @Test(timeout = 10000L)
+  public void testETagRevalidation() throws IOException {
+    String eTag;
+    try (Response response = get("/places/", null)) {
+      assertWithMessage("GET should have succeeded")
+          .that(response.code())
+          .isEqualTo(HttpURLConnection.HTTP_OK);
+      eTag = response.header("ETag");
+      assertWithMessage("Response should have an ETag").that(eTag).isNotNull();
+      assertWithMessage("Wrong number of places").that(getPlaces(response)).hasSize(PLACES_COUNT);
+    }
+
+    String[] matching = {eTag, "W/" + eTag, "*", "\"other\", " + eTag, " \"other\" ,W/" + eTag};
+    for (String ifNoneMatch : matching) {
+      try (Response response = get("/places/", ifNoneMatch)) {
+        assertWithMessage("Unchanged list should not be sent again for " + ifNoneMatch)
+            .that(response.code())
+            .isEqualTo(HttpURLConnection.HTTP_NOT_MODIFIED);
+        assertWithMessage("Not modified response should repeat the ETag")
+            .that(response.header("ETag"))
+            .isEqualTo(eTag);
+        assertWithMessage("Not modified response should have no body")
+            .that(response.body().bytes())
+            .isEmpty();
+      }
+    }
+    try (Response response = get("/places/", "\"other\"")) {
+      assertWithMessage("Other ETags should not match")
+          .that(response.code())
+          .isEqualTo(HttpURLConnection.HTTP_OK);
+    }
+
+    postPlace(UUID.randomUUID().toString(), "Posted by ServerTest");
+    String changedETag;
+    try (Response response = get("/places/", eTag)) {
+      assertWithMessage("Changed list should be sent again")
+          .that(response.code())
+          .isEqualTo(HttpURLConnection.HTTP_OK);
+      changedETag = response.header("ETag");
+      assertWithMessage("Changed list should have a new ETag").that(changedETag).isNotEqualTo(eTag);
+      assertWithMessage("Wrong number of places after POST")
+          .that(getPlaces(response))
+          .hasSize(PLACES_COUNT + 1);
+    }
+
+    Server.reset();
+    try (Response response = get("/places/", changedETag)) {
+      assertWithMessage("Reset list should be sent again")
+          .that(response.code())
+          .isEqualTo(HttpURLConnection.HTTP_OK);
+      assertWithMessage("Wrong number of places after reset")
+          .that(getPlaces(response))
+          .hasSize(PLACES_COUNT);
+    }
+  }
+
+  @Test(timeout = 10000L)
+  public void testPagesEndWithNullCursor() throws IOException {
+    String postedID = UUID.randomUUID().toString();
+    Set<String> seen = new HashSet<>();
+    String cursor = null;
+    int pages = 0;
+    do {
+      String path = "/places/?limit=10";
+      if (cursor != null) {
+        path += "&cursor=" + cursor;
+      }
+      try (Response response = get(path, null)) {
+        assertWithMessage("GET should have succeeded")
+            .that(response.code())
+            .isEqualTo(HttpURLConnection.HTTP_OK);
+        PlacesPage page = MAPPER.readValue(response.body().string(), PlacesPage.class);
+        if (page.getCursor() != null) {
+          assertWithMessage("Only the last page may be short").that(page.getPlaces()).hasSize(10);
+        }
+        for (Place place : page.getPlaces()) {
+          seen.add(place.getId());
+        }
+        cursor = page.getCursor();
+      }
+      // A place added while paging is at the end of the list, so it is still reached
+      if (pages++ == 0) {
+        postPlace(postedID, "Posted while paging");
+      }
+    } while (cursor != null);
+    assertWithMessage("Wrong number of places across pages").that(seen).hasSize(PLACES_COUNT + 1);
+    assertWithMessage("Place added while paging was missed").that(seen).contains(postedID);
+
+    try (Response response = get("/places/?limit=10&cursor=-5", null)) {
+      assertWithMessage("Invalid cursor should be rejected")
+          .that(response.code())
+          .isEqualTo(HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+  }
+
+  @Test(timeout = 10000L)
+  public void testPostUpsertsById() throws IOException {
+    String id = UUID.randomUUID().toString();
+    postPlace(id, "First description");
+    List<Place> places;
+    try (Response response = get("/places/", null)) {
+      places = getPlaces(response);
+    }
+    assertWithMessage("New place should be added").that(places).hasSize(PLACES_COUNT + 1);
+    assertWithMessage("New place should be last")
+        .that(places.get(places.size() - 1).getId())
+        .isEqualTo(id);
+
+    // Posting another place first, so that updating the first one has to move it
+    String otherID = UUID.randomUUID().toString();
+    postPlace(otherID, "Other description");
+    postPlace(id, "Second description");
+    try (Response response = get("/places/", null)) {
+      places = getPlaces(response);
+    }
+    assertWithMessage("Updating a place should not add another")
+        .that(places)
+        .hasSize(PLACES_COUNT + 2);
+    Place last = places.get(places.size() - 1);
+    assertWithMessage("Updated place should move to the end").that(last.getId()).isEqualTo(id);
+    assertWithMessage("Updated place should have the new description")
+        .that(last.getDescription())
+        .isEqualTo("Second description");
+    assertWithMessage("Other place should now be before the updated place")
+        .that(places.get(places.size() - 2).getId())
+        .isEqualTo(otherID);
+    int copies = 0;
+    for (Place place : places) {
+      if (place.getId().equals(id)) {
+        copies++;
+      }
+    }
+    assertWithMessage("Updated place should appear once").that(copies).isEqualTo(1);
+  }
+
+  @Test(timeout = 30000L)
+  public void testConcurrentPostsAndGets() throws Exception {
+    int threads = 8;
+    int postsPerThread = 25;
+    ExecutorService executor = Executors.newFixedThreadPool(threads * 2);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int thread = 0; thread < threads; thread++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < postsPerThread; i++) {
+                    String id = UUID.randomUUID().toString();
+                    postPlace(id, "Posted concurrently");
+                    // Posting the same place again should update it rather than adding another
+                    postPlace(id, "Posted concurrently again");
+                  }
+                  return null;
+                }));
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < postsPerThread; i++) {
+                    try (Response response = get("/places/", null)) {
+                      assertWithMessage("GET during POSTs should have succeeded")
+                          .that(response.code())
+                          .isEqualTo(HttpURLConnection.HTTP_OK);
+                      assertWithMessage("GET during POSTs should not lose places")
+                          .that(getPlaces(response).size())
+                          .isAtLeast(PLACES_COUNT);
+                    }
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    try (Response response = get("/places/", null)) {
+      assertWithMessage("Wrong number of places after concurrent POSTs")
+          .that(getPlaces(response))
+          .hasSize(PLACES_COUNT + threads * postsPerThread);
+    }
+  }
+
+  // GET the whole list of places as it was sent
+  private static String getPlacesBody() throws IOException {
+    try (Response response = get("/places/", null)) {
+      assertWithMessage("GET should have succeeded")
+          .that(response.code())
+          .isEqualTo(HttpURLConnection.HTTP_OK);
+      return response.body().string();
+    }
+  }
+
+  @Test(timeout = 10000L)
+  public void testPlacesBodyFollowsChanges() throws IOException {
+    String original = getPlacesBody();
+    assertWithMessage("Unchanged list should be sent the same way each time")
+        .that(getPlacesBody())
+        .isEqualTo(original);
+
+    String id = UUID.randomUUID().toString();
+    postPlace(id, "Posted by ServerTest");
+    String posted = getPlacesBody();
+    assertWithMessage("List should change after a POST").that(posted).isNotEqualTo(original);
+    assertWithMessage("List after a POST should include the new place").that(posted).contains(id);
+    assertWithMessage("Wrong number of places after POST")
+        .that(MAPPER.readValue(posted, new TypeReference<List<Place>>() {}))
+        .hasSize(PLACES_COUNT + 1);
+    assertWithMessage("Unchanged list should be sent the same way after a POST")
+        .that(getPlacesBody())
+        .isEqualTo(posted);
+
+    postPlace(id, "Updated by ServerTest");
+    String updated = getPlacesBody();
+    assertWithMessage("List should change after updating a place")
+        .that(updated)
+        .contains("Updated by ServerTest");
+    assertWithMessage("List after updating a place should not have the old description")
+        .that(updated)
+        .doesNotContain("Posted by ServerTest");
+
+    Server.reset();
+    assertWithMessage("List after a reset should match the original list")
+        .that(getPlacesBody())
+        .isEqualTo(original);
+  }
+}
@@ -0,0 +1,162 @@
+package edu.illinois.cs.cs124.ay2022.mp.network;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+import static org.junit.Assert.fail;
+
+import edu.illinois.cs.cs124.ay2022.mp.models.Place;
+import edu.illinois.cs.cs124.ay2022.mp.models.PlaceColumns;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*
+ * Tests for the binary copy of places.csv that the server loads instead of parsing the CSV.
+ *
+ * These are not part of any checkpoint, and write, damage, and reopen the file directly.
+ */
+public final class PackedPlacesTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  // Recorded as the source of every file written by these tests
+  private static final String SOURCE = "0123456789abcdef";
+
+  // Position of the length of the source
+  private static final int SOURCE_LENGTH_POSITION = Long.BYTES;
+
+  // Position of the places, after the header and the source
+  private static final int COLUMNS_POSITION = Long.BYTES + Integer.BYTES + SOURCE.length();
+
+  // Position of the string table in a file with one place, after its coordinates and ID
+  private static final int ONE_PLACE_TABLE_POSITION =
+      COLUMNS_POSITION + Integer.BYTES * 2 + Double.BYTES * 2 + Long.BYTES * 2;
+
+  private static List<Place> places() throws IOException {
+    List<Place> toReturn = new ArrayList<>(Server.loadPlaces());
+    toReturn.add(
+        new Place(
+            "00000000-0000-0000-0000-000000000124", "Nulls", 40.1, -88.2, null, "No npg here"));
+    toReturn.add(
+        new Place(
+            "00000000-0000-0000-0000-000000000125",
+            "Caf\u00e9",
+            -90.0,
+            180.0,
+            "",
+            "\u00c9t\u00e9 \u2603"));
+    return toReturn;
+  }
+
+  private static void checkSame(final Place expected, final Place place) {
+    assertWithMessage("Wrong ID").that(place.getId()).isEqualTo(expected.getId());
+    assertWithMessage("Wrong name").that(place.getName()).isEqualTo(expected.getName());
+    assertWithMessage("Wrong latitude").that(place.getLatitude()).isEqualTo(expected.getLatitude());
+    assertWithMessage("Wrong longitude")
+        .that(place.getLongitude())
+        .isEqualTo(expected.getLongitude());
+    assertWithMessage("Wrong npg").that(place.getNpg()).isEqualTo(expected.getNpg());
+    assertWithMessage("Wrong description")
+        .that(place.getDescription())
+        .isEqualTo(expected.getDescription());
+  }
+
+  @Test(timeout = 10000L)
+  public void testRoundTrip() throws IOException {
+    List<Place> places = places();
+    File file = new File(folder.getRoot(), "places.packed");
+    PackedPlaces.write(places, SOURCE, file);
+    PackedPlaces packed = PackedPlaces.open(file);
+    assertWithMessage("Wrong source").that(packed.getSource()).isEqualTo(SOURCE);
+    PlaceColumns columns = packed.getColumns();
+    assertWithMessage("Wrong number of places").that(columns.size()).isEqualTo(places.size());
+    for (int i = 0; i < places.size(); i++) {
+      checkSame(places.get(i), columns.get(i));
+    }
+
+    PackedPlaces.write(new ArrayList<>(), SOURCE, file);
+    assertWithMessage("Empty file should have no places")
+        .that(PackedPlaces.open(file).getColumns().size())
+        .isEqualTo(0);
+  }
+
+  // Write a file with a single place, apply damage to it, and check that opening it fails
+  private interface Damage {
+    void apply(RandomAccessFile file) throws IOException;
+  }
+
+  private void checkRejected(final String description, final Damage damage) throws IOException {
+    List<Place> one = new ArrayList<>();
+    one.add(places().get(0));
+    File file = folder.newFile();
+    PackedPlaces.write(one, SOURCE, file);
+    try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+      damage.apply(output);
+    }
+    try {
+      PackedPlaces.open(file);
+      fail("Opened a file with " + description);
+    } catch (IOException ignored) {
+    }
+  }
+
+  @Test(timeout = 10000L)
+  public void testDamagedFilesAreRejected() throws IOException {
+    checkRejected("no contents", file -> file.setLength(0));
+    checkRejected("a partial header", file -> file.setLength(Long.BYTES + 2));
+    checkRejected("a missing byte", file -> file.setLength(file.length() - 1));
+    checkRejected("an extra byte", file -> file.setLength(file.length() + 1));
+    checkRejected("the wrong magic number", file -> file.writeLong(0));
+    checkRejected(
+        "a negative source length",
+        file -> {
+          file.seek(SOURCE_LENGTH_POSITION);
+          file.writeInt(-1);
+        });
+    checkRejected(
+        "a source past the end of the file",
+        file -> {
+          file.seek(SOURCE_LENGTH_POSITION);
+          file.writeInt((int) file.length());
+        });
+    checkRejected(
+        "a negative count",
+        file -> {
+          file.seek(COLUMNS_POSITION);
+          file.writeInt(-1);
+        });
+    checkRejected(
+        "a count that overflows",
+        file -> {
+          file.seek(COLUMNS_POSITION);
+          file.writeInt(Integer.MAX_VALUE);
+        });
+    checkRejected(
+        "a heap size that doesn't match the file",
+        file -> {
+          file.seek(COLUMNS_POSITION + Integer.BYTES);
+          file.writeInt(0);
+        });
+    checkRejected(
+        "a negative string offset",
+        file -> {
+          file.seek(ONE_PLACE_TABLE_POSITION);
+          file.writeInt(-8);
+        });
+    checkRejected(
+        "a string past the end of the heap",
+        file -> {
+          file.seek(ONE_PLACE_TABLE_POSITION + Integer.BYTES);
+          file.writeInt(Integer.MAX_VALUE);
+        });
+    checkRejected(
+        "a negative string length",
+        file -> {
+          file.seek(ONE_PLACE_TABLE_POSITION + Integer.BYTES);
+          file.writeInt(-2);
+        });
+  }
+}
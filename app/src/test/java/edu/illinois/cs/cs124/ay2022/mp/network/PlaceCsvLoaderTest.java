@@ -0,0 +1,173 @@
+package edu.illinois.cs.cs124.ay2022.mp.network;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import edu.illinois.cs.cs124.ay2022.mp.models.Place;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.UUID;
+import org.junit.Test;
+
+/*
+ * Tests for the parallel CSV loader used to load places.csv.
+ *
+ * These are not part of any checkpoint, and compare the loader against the simple loader it
+ * replaced, which read the entire file into a string and parsed it with OpenCSV in one pass.
+ */
+public final class PlaceCsvLoaderTest {
+  // Chunk sizes small enough that rows, and even single fields, are split across chunks
+  private static final int[] CHUNK_SIZES = {1, 2, 3, 7, 16, 64};
+
+  // Random files checked against the old loader
+  private static final int RANDOM_FILE_COUNT = 2000;
+
+  // Characters that random fields are built from, including everything that affects row endings
+  private static final String FIELD_ALPHABET = "ab ,\"\"\\\\\r\n\u00e9";
+
+  private static final String[] LINE_ENDINGS = {"\n", "\r\n", "\r"};
+
+  // The loader used before PlaceCsvLoader, which parsed the entire file at once
+  private static List<Place> loadAtOnce(final String csv) throws IOException {
+    String input = new Scanner(new StringReader(csv)).useDelimiter("\\A").next();
+    CSVReader csvReader = new CSVReaderBuilder(new StringReader(input)).withSkipLines(2).build();
+    List<Place> toReturn = new ArrayList<>();
+    for (String[] parts : csvReader) {
+      toReturn.add(
+          new Place(
+              parts[0],
+              parts[1],
+              Double.parseDouble(parts[2]),
+              Double.parseDouble(parts[3]),
+              parts[5],
+              parts[4]));
+    }
+    return toReturn;
+  }
+
+  private static List<String> describe(final List<Place> places) {
+    List<String> toReturn = new ArrayList<>();
+    for (Place place : places) {
+      toReturn.add(
+          String.join(
+              "|",
+              place.getId(),
+              place.getName(),
+              Double.toString(place.getLatitude()),
+              Double.toString(place.getLongitude()),
+              place.getNpg(),
+              place.getDescription()));
+    }
+    return toReturn;
+  }
+
+  // Check that the loader agrees with the old loader for every chunk size
+  private static void checkSameAsAtOnce(final String csv) throws IOException {
+    List<String> expected;
+    try {
+      expected = describe(loadAtOnce(csv));
+    } catch (RuntimeException | IOException e) {
+      // Not a valid places file, which random files often aren't
+      return;
+    }
+    for (int chunkSize : CHUNK_SIZES) {
+      InputStream input = new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8));
+      assertWithMessage("Chunks of " + chunkSize + " bytes were parsed differently: " + csv)
+          .that(describe(PlaceCsvLoader.load(input, chunkSize)))
+          .isEqualTo(expected);
+    }
+  }
+
+  @Test(timeout = 10000L)
+  public void testMatchesOldLoader() throws IOException {
+    String[] files = {
+      // Line endings, including an empty header line and no line ending at the end
+      "hash\nid,name,lat,lon,desc,npg\n1,A,1.0,2.0,First,a\n2,B,3.0,4.0,Second,b\n",
+      "hash\r\nheader\r\n1,A,1.0,2.0,First,a\r\n2,B,3.0,4.0,Second,b\r\n",
+      "hash\rheader\r1,A,1.0,2.0,First,a\r2,B,3.0,4.0,Second,b",
+      "hash\r\n\r\n1,A,1.0,2.0,First,a\r2,B,3.0,4.0,Second,b\n",
+      // Line endings inside quoted fields
+      "h\nh\n1,\"A\nB\",1.0,2.0,\"Multi\r\nline\rdescription\",a\n2,B,3.0,4.0,\"\n\",b\n",
+      // Doubled quotes, inside and outside quoted fields
+      "h\nh\n1,\"Say \"\"hi\"\"\",1.0,2.0,a\"\"b,c\n2,\"\"\"\",3.0,4.0,\"\",\"\"\"\n\"\"\"\n",
+      // Backslashes escaping quotes, backslashes, and nothing
+      "h\nh\n1,\"a\\\"b\",1.0,2.0,\"c\\\\\",d\\e\n2,\\\"x,3.0,4.0,\"y\\\"\nz\",\\\\\n",
+      // Non-ASCII text
+      "h\nh\n1,Caf\u00e9,1.0,2.0,\"\u00c9t\u00e9\n\u2603\",\u00df\n"
+    };
+    for (String file : files) {
+      assertWithMessage("Old loader should accept " + file).that(loadAtOnce(file)).isNotEmpty();
+      checkSameAsAtOnce(file);
+    }
+
+    Random random = new Random(124);
+    for (int i = 0; i < RANDOM_FILE_COUNT; i++) {
+      checkSameAsAtOnce(randomFile(random));
+    }
+  }
+
+  private static String randomFile(final Random random) {
+    StringBuilder toReturn = new StringBuilder();
+    toReturn.append("hash").append(LINE_ENDINGS[random.nextInt(LINE_ENDINGS.length)]);
+    toReturn.append("header").append(LINE_ENDINGS[random.nextInt(LINE_ENDINGS.length)]);
+    int rows = random.nextInt(8);
+    for (int row = 0; row < rows; row++) {
+      for (int field = 0; field < 6; field++) {
+        if (field > 0) {
+          toReturn.append(',');
+        }
+        if (field == 2 || field == 3) {
+          toReturn.append(random.nextInt(180));
+        } else {
+          toReturn.append(randomField(random));
+        }
+      }
+      if (row < rows - 1 || random.nextBoolean()) {
+        toReturn.append(LINE_ENDINGS[random.nextInt(LINE_ENDINGS.length)]);
+      }
+    }
+    return toReturn.toString();
+  }
+
+  // A field that is either quoted with its quotes doubled or written exactly as generated
+  private static String randomField(final Random random) {
+    StringBuilder value = new StringBuilder();
+    int length = random.nextInt(6);
+    for (int i = 0; i < length; i++) {
+      value.append(FIELD_ALPHABET.charAt(random.nextInt(FIELD_ALPHABET.length())));
+    }
+    if (random.nextBoolean()) {
+      return "\"" + value.toString().replace("\"", "\"\"") + "\"";
+    }
+    return value.toString();
+  }
+
+  @Test(timeout = 10000L)
+  public void testRowsShareStrings() throws IOException {
+    String name = "Shared " + UUID.randomUUID();
+    StringBuilder csv = new StringBuilder("hash\nheader\n");
+    for (int i = 0; i < 2; i++) {
+      csv.append(UUID.randomUUID()).append(',').append(name).append(",40.1,-88.2,Row,a\n");
+    }
+    // Chunks of one row each, so the rows are parsed separately
+    byte[] bytes = csv.toString().getBytes(StandardCharsets.UTF_8);
+    List<Place> loaded = PlaceCsvLoader.load(new ByteArrayInputStream(bytes), 1);
+    assertWithMessage("Rows should share their name")
+        .that(loaded.get(1).getName())
+        .isSameInstanceAs(loaded.get(0).getName());
+    assertWithMessage("Rows should share their npg")
+        .that(loaded.get(1).getNpg())
+        .isSameInstanceAs(loaded.get(0).getNpg());
+    assertWithMessage("Rows should use the pooled name")
+        .that(loaded.get(0).getName())
+        .isSameInstanceAs(Place.getSharedStrings().intern(new String(name.toCharArray())));
+  }
+}
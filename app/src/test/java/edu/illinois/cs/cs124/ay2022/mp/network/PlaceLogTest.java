@@ -0,0 +1,347 @@
+package edu.illinois.cs.cs124.ay2022.mp.network;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.illinois.cs.cs124.ay2022.mp.models.Place;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*
+ * Tests for the write-ahead log used to save posted places.
+ *
+ * These are not part of any checkpoint, and use the log directly rather than through the server,
+ * damaging its files the way a crash or a bad disk would.
+ */
+public final class PlaceLogTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  // Recorded as the source of every snapshot written by these tests
+  private static final String SOURCE = "0123456789abcdef";
+
+  // First bytes of a snapshot written before snapshots recorded their source
+  private static final long FULL_SNAPSHOT_MAGIC = 0x504c534e41505331L;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  // Number of records written before damaging the log
+  private static final int RECORD_COUNT = 8;
+
+  // Threads appending at once when testing group commit, and how many records each appends
+  private static final int WRITER_COUNT = 8;
+  private static final int WRITES_PER_WRITER = 200;
+
+  private static Place makePlace(final int id) {
+    return new Place(
+        String.format("00000000-0000-0000-0000-%012d", id),
+        "Logger",
+        40.1,
+        -88.2,
+        "a",
+        "Logged place " + id);
+  }
+
+  // Append places to a new log, returning the position after each
+  private static long[] appendPlaces(final PlaceLog log, final int count) throws IOException {
+    long[] toReturn = new long[count];
+    for (int i = 0; i < count; i++) {
+      toReturn[i] = log.append(makePlace(i));
+      log.awaitDurable(toReturn[i]);
+    }
+    return toReturn;
+  }
+
+  private static List<String> descriptions(final List<Place> places) {
+    List<String> toReturn = new ArrayList<>();
+    for (Place place : places) {
+      toReturn.add(place.getDescription());
+    }
+    return toReturn;
+  }
+
+  private static List<String> expectedDescriptions(final int count) {
+    List<String> toReturn = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      toReturn.add(makePlace(i).getDescription());
+    }
+    return toReturn;
+  }
+
+  @Test(timeout = 10000L)
+  public void testTornTailIsTruncated() throws IOException {
+    File directory = folder.newFolder();
+    PlaceLog log = new PlaceLog(directory, 0);
+    log.recover();
+    long[] positions = appendPlaces(log, RECORD_COUNT);
+
+    // Half of a record, as left by a crash partway through writing it
+    File segment = new File(directory, "places-0.log");
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      byte[] record = new byte[(int) positions[0]];
+      file.readFully(record);
+      file.seek(file.length());
+      file.write(record, 0, record.length / 2);
+    }
+
+    PlaceLog recovered = new PlaceLog(directory, 0);
+    assertWithMessage("Complete records should be recovered")
+        .that(descriptions(recovered.recover().getRecords()))
+        .isEqualTo(expectedDescriptions(RECORD_COUNT));
+    assertWithMessage("Torn record should be removed")
+        .that(segment.length())
+        .isEqualTo(positions[RECORD_COUNT - 1]);
+
+    // New records go after the good ones rather than after the torn one
+    recovered.awaitDurable(recovered.append(makePlace(RECORD_COUNT)));
+    assertWithMessage("Record appended after recovery should be recovered")
+        .that(descriptions(new PlaceLog(directory, 0).recover().getRecords()))
+        .isEqualTo(expectedDescriptions(RECORD_COUNT + 1));
+  }
+
+  @Test(timeout = 10000L)
+  public void testChecksumMismatchDiscardsRest() throws IOException {
+    File directory = folder.newFolder();
+    PlaceLog log = new PlaceLog(directory, 0);
+    log.recover();
+    long[] positions = appendPlaces(log, RECORD_COUNT);
+    // Records in a later segment follow the damaged one, so they can't be trusted either
+    log.startSegment();
+    log.awaitDurable(log.append(makePlace(RECORD_COUNT)));
+
+    // Flip a bit in the last byte of the fourth record's JSON
+    File segment = new File(directory, "places-0.log");
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      file.seek(positions[3] - 1);
+      int value = file.read();
+      file.seek(positions[3] - 1);
+      file.write(value ^ 1);
+    }
+
+    PlaceLog recovered = new PlaceLog(directory, 0);
+    assertWithMessage("Only records before the damaged one should be recovered")
+        .that(descriptions(recovered.recover().getRecords()))
+        .isEqualTo(expectedDescriptions(3));
+    assertWithMessage("Damaged record should be removed")
+        .that(segment.length())
+        .isEqualTo(positions[2]);
+    assertWithMessage("Segment after the damaged record should be deleted")
+        .that(new File(directory, "places-1.log").exists())
+        .isFalse();
+  }
+
+  private static void checkGroupCommit(final File directory, final long commitWindow)
+      throws Exception {
+    PlaceLog log = new PlaceLog(directory, commitWindow);
+    log.recover();
+    ExecutorService executor = Executors.newFixedThreadPool(WRITER_COUNT);
+    List<Future<List<Long>>> writers = new ArrayList<>();
+    for (int writer = 0; writer < WRITER_COUNT; writer++) {
+      int first = writer * WRITES_PER_WRITER;
+      writers.add(
+          executor.submit(
+              () -> {
+                List<Long> positions = new ArrayList<>();
+                for (int i = first; i < first + WRITES_PER_WRITER; i++) {
+                  long position = log.append(makePlace(i));
+                  // Returns once the record is on storage, which may be forced along with others
+                  log.awaitDurable(position);
+                  positions.add(position);
+                }
+                return positions;
+              }));
+    }
+    Set<Long> positions = new HashSet<>();
+    for (Future<List<Long>> writer : writers) {
+      positions.addAll(writer.get());
+    }
+    executor.shutdown();
+    assertWithMessage("Every append should have its own position")
+        .that(positions)
+        .hasSize(WRITER_COUNT * WRITES_PER_WRITER);
+
+    // Everything that was reported durable must be recovered
+    Set<String> recovered =
+        new HashSet<>(descriptions(new PlaceLog(directory, commitWindow).recover().getRecords()));
+    assertWithMessage("Every durable record should be recovered")
+        .that(recovered)
+        .containsExactlyElementsIn(expectedDescriptions(WRITER_COUNT * WRITES_PER_WRITER));
+  }
+
+  @Test(timeout = 30000L)
+  public void testGroupCommitIsDurable() throws Exception {
+    checkGroupCommit(folder.newFolder(), 0);
+    checkGroupCommit(folder.newFolder(), 1);
+    checkGroupCommit(folder.newFolder(), PlaceLog.FORCE_EACH_WRITE);
+  }
+
+  // Write a log with a snapshot of the first RECORD_COUNT places and two records after it
+  private static PlaceLog writeSnapshot(final File directory) throws IOException {
+    PlaceLog log = new PlaceLog(directory, 0);
+    log.recover();
+    appendPlaces(log, RECORD_COUNT);
+    long generation = log.startSegment();
+    List<Place> snapshot = new ArrayList<>();
+    for (int i = 0; i < RECORD_COUNT; i++) {
+      snapshot.add(makePlace(i));
+    }
+    log.awaitDurable(log.append(makePlace(RECORD_COUNT)));
+    log.saveSnapshot(SOURCE, snapshot, generation);
+    log.awaitDurable(log.append(makePlace(RECORD_COUNT + 1)));
+    return log;
+  }
+
+  @Test(timeout = 10000L)
+  public void testSnapshotReplacesCoveredSegments() throws IOException {
+    File directory = folder.newFolder();
+    writeSnapshot(directory);
+    assertWithMessage("Segment covered by the snapshot should be deleted")
+        .that(new File(directory, "places-0.log").exists())
+        .isFalse();
+    assertWithMessage("Segment after the snapshot should be kept")
+        .that(new File(directory, "places-1.log").exists())
+        .isTrue();
+
+    PlaceLog.Recovered recovered = new PlaceLog(directory, 0).recover();
+    assertWithMessage("Snapshot source should be recovered")
+        .that(recovered.getSnapshotSource())
+        .isEqualTo(SOURCE);
+    assertWithMessage("Snapshot should be recovered")
+        .that(descriptions(recovered.getSnapshot()))
+        .isEqualTo(expectedDescriptions(RECORD_COUNT));
+    assertWithMessage("Only records after the snapshot should be replayed")
+        .that(descriptions(recovered.getRecords()))
+        .isEqualTo(expectedDescriptions(RECORD_COUNT + 2).subList(RECORD_COUNT, RECORD_COUNT + 2));
+  }
+
+  @Test(timeout = 10000L)
+  public void testFullSnapshotIsStillRead() throws IOException {
+    // Snapshots written before they recorded a source held every place, with no source
+    File directory = folder.newFolder();
+    try (DataOutputStream output =
+        new DataOutputStream(new FileOutputStream(new File(directory, "places.snapshot")))) {
+      output.writeLong(FULL_SNAPSHOT_MAGIC);
+      output.writeLong(0);
+      output.writeInt(RECORD_COUNT);
+      for (int i = 0; i < RECORD_COUNT; i++) {
+        byte[] body = MAPPER.writeValueAsBytes(makePlace(i));
+        CRC32 checksum = new CRC32();
+        checksum.update(body);
+        output.writeInt(body.length);
+        output.writeInt((int) checksum.getValue());
+        output.write(body);
+      }
+    }
+    PlaceLog.Recovered recovered = new PlaceLog(directory, 0).recover();
+    assertWithMessage("Full snapshot should have no source")
+        .that(recovered.getSnapshotSource())
+        .isNull();
+    assertWithMessage("Full snapshot should be recovered")
+        .that(descriptions(recovered.getSnapshot()))
+        .isEqualTo(expectedDescriptions(RECORD_COUNT));
+  }
+
+  // Recover from a damaged snapshot, which should be moved aside
+  private static void checkDamagedSnapshot(final File directory) throws IOException {
+    PlaceLog.Recovered recovered = new PlaceLog(directory, 0).recover();
+    assertWithMessage("Damaged snapshot should not be used").that(recovered.getSnapshot()).isNull();
+    assertWithMessage("Remaining segments should still be replayed")
+        .that(descriptions(recovered.getRecords()))
+        .isEqualTo(expectedDescriptions(RECORD_COUNT + 2).subList(RECORD_COUNT, RECORD_COUNT + 2));
+    assertWithMessage("Damaged snapshot should be moved aside")
+        .that(new File(directory, "places.snapshot").exists())
+        .isFalse();
+    String[] damaged = directory.list((unused, name) -> name.startsWith("places.snapshot.damaged"));
+    assertWithMessage("Damaged snapshot should be kept").that(damaged).hasLength(1);
+
+    // The log keeps working, and a new snapshot can be saved
+    PlaceLog log = new PlaceLog(directory, 0);
+    log.recover();
+    long generation = log.startSegment();
+    log.saveSnapshot(SOURCE, recovered.getRecords(), generation);
+    assertWithMessage("New snapshot should be recovered")
+        .that(descriptions(new PlaceLog(directory, 0).recover().getSnapshot()))
+        .isEqualTo(descriptions(recovered.getRecords()));
+  }
+
+  @Test(timeout = 10000L)
+  public void testDamagedSnapshotIsMovedAside() throws IOException {
+    // A flipped bit in the last place's JSON
+    File flipped = folder.newFolder();
+    writeSnapshot(flipped);
+    try (RandomAccessFile file = new RandomAccessFile(new File(flipped, "places.snapshot"), "rw")) {
+      file.seek(file.length() - 2);
+      int value = file.read();
+      file.seek(file.length() - 2);
+      file.write(value ^ 1);
+    }
+    checkDamagedSnapshot(flipped);
+
+    // A snapshot cut short
+    File truncated = folder.newFolder();
+    writeSnapshot(truncated);
+    try (RandomAccessFile file =
+        new RandomAccessFile(new File(truncated, "places.snapshot"), "rw")) {
+      file.setLength(file.length() / 2);
+    }
+    checkDamagedSnapshot(truncated);
+
+    // A negative record length
+    File negative = folder.newFolder();
+    writeSnapshot(negative);
+    try (RandomAccessFile file =
+        new RandomAccessFile(new File(negative, "places.snapshot"), "rw")) {
+      // Skip the magic number, generation, source, and count
+      file.seek(Long.BYTES * 2 + Short.BYTES + SOURCE.length() + Integer.BYTES);
+      file.writeInt(-RECORD_COUNT);
+    }
+    checkDamagedSnapshot(negative);
+  }
+
+  @Test(timeout = 10000L)
+  public void testInvalidIdsAreSkipped() throws IOException {
+    // Logs written before posted IDs were checked can hold IDs that aren't UUIDs
+    Place invalid = new Place("1-2-3-4-5", "Invalid", 40.1, -88.2, null, "Invalid ID");
+    File directory = folder.newFolder();
+    PlaceLog log = new PlaceLog(directory, 0);
+    log.recover();
+    appendPlaces(log, RECORD_COUNT);
+    long generation = log.startSegment();
+    List<Place> snapshot = new ArrayList<>();
+    for (int i = 0; i < RECORD_COUNT; i++) {
+      snapshot.add(makePlace(i));
+    }
+    snapshot.add(invalid);
+    log.saveSnapshot(SOURCE, snapshot, generation);
+    log.awaitDurable(log.append(invalid));
+    log.awaitDurable(log.append(makePlace(RECORD_COUNT)));
+    log.awaitDurable(log.append(makePlace(RECORD_COUNT + 1)));
+    File segment = new File(directory, "places-" + generation + ".log");
+    long length = segment.length();
+
+    PlaceLog.Recovered recovered = new PlaceLog(directory, 0).recover();
+    assertWithMessage("Snapshot places with invalid IDs should be skipped")
+        .that(descriptions(recovered.getSnapshot()))
+        .isEqualTo(expectedDescriptions(RECORD_COUNT));
+    assertWithMessage("Records with invalid IDs should be skipped, but not the records after them")
+        .that(descriptions(recovered.getRecords()))
+        .isEqualTo(expectedDescriptions(RECORD_COUNT + 2).subList(RECORD_COUNT, RECORD_COUNT + 2));
+    assertWithMessage("Skipped places should be counted").that(recovered.getSkipped()).isEqualTo(2);
+    assertWithMessage("Records with invalid IDs should not be treated as damage")
+        .that(segment.length())
+        .isEqualTo(length);
+  }
+}